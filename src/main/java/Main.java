@@ -9,6 +9,7 @@ import nn.transformer.mask.MaskUtils;
 import nn.transformer.modules.*;
 import nn.transformer.trainer.*;
 import tensor.Nd4jInit;
+import tensor.StepArena;
 import tensor.Tensor;
 
 import java.util.Arrays;
@@ -27,24 +28,29 @@ public class Main {
 
         double dropout = 0.1;
         double lnEps = 1e-5;
+        boolean checkpointing = false;      // Recompute blocks in backward : less activation memory
         int maxLen = 20;
         int BOS = 1, EOS = 2, PAD = 0;
 
         int trainN = 100;
         int validN = 10;
         int batchSize = 10;
+        int microBatchTokens = 0;           // Gradient accumulation : padded tokens per micro-batch (0 : whole batch)
+        boolean stepArena = false;          // Reuse each step's native memory at the next step (see Trainer.setStepArena)
         int epochs = 5;
 
         double lr = 5e-3;
         double beta1 = 0.9, beta2 = 0.98, adamEps = 1e-8;
+        double weightDecay = 0.0;           // AdamW decoupled decay (fused optimizer only)
+        boolean fusedAdam = false;          // Opt-in : one flat-buffer update pass (bias correction 1 - beta^t, unlike Adam)
 
         Supplier<LayerNorm> layerNormSupplier = () -> new LayerNorm(d_model, lnEps, true);
 
         TokenEmbeddings srcEmb = new TokenEmbeddings(V, d_model, PAD, new XavierNormal(), true, dropout);
         TokenEmbeddings tgtEmb = new TokenEmbeddings(V, d_model, PAD, new XavierNormal(), true, dropout);
         SinusoidalPositionalEncoding posEnc = new SinusoidalPositionalEncoding(maxLen, d_model);
-        Encoder encoder = new Encoder(d_model, d_hidden, nHead, N, layerNormSupplier, true, dropout, dropout);
-        Decoder decoder = new Decoder(d_model, d_hidden, nHead, N, layerNormSupplier, true, dropout, dropout);
+        Encoder encoder = new Encoder(d_model, d_hidden, nHead, N, layerNormSupplier, true, dropout, dropout, checkpointing);
+        Decoder decoder = new Decoder(d_model, d_hidden, nHead, N, layerNormSupplier, true, dropout, dropout, checkpointing);
         Linear lmHead = new Linear(d_model, V, new XavierNormal(), new HeNormal(), true, dropout);
 
         // Weight tying
@@ -56,12 +62,19 @@ public class Main {
                 PAD, BOS, EOS);
 
         Loss ceLoss = new CrossEntropyLoss();
-        Optimizer opt = new Adam(lr, beta1, beta2, adamEps);
+        Optimizer opt = fusedAdam
+                ? new FusedAdam(model.parameters(), lr, beta1, beta2, adamEps, weightDecay,
+                        Runtime.getRuntime().availableProcessors())
+                : new Adam(lr, beta1, beta2, adamEps);
 
         ToySeq2SeqDataset trainData = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, trainN, maxLen, V, PAD, BOS, EOS);
         ToySeq2SeqDataset validData = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, validN, maxLen, V, PAD, BOS, EOS);
 
         Trainer trainer = new Trainer(model, opt, ceLoss, V, PAD);
+        trainer.setMicroBatchTokens(microBatchTokens);
+
+        StepArena arena = stepArena ? new StepArena("train-step") : null;
+        trainer.setStepArena(arena);
 
         /* ===== 에폭 루프 ===== */
 
@@ -70,6 +83,8 @@ public class Main {
         for (int e = 1; e <= epochs; e++) {
             double[] trainRes = trainer.trainEpoch(trainData, batchSize);
             System.out.printf("epoch %d | loss=%.4f | tokenAcc=%.4f%n", e, trainRes[0], trainRes[1]);
+            if(arena != null)
+                System.out.printf("  arena | highWater=%.1fMB | reuse=%.3f%n", arena.highWaterBytes() / 1e6, arena.reuseRate());
 
             /* For validataion */
 
@@ -87,11 +102,11 @@ public class Main {
 
         /* Validation */
 
+        // All validation sources decoded as one batch
+        int[][] generated = Generator.greedyDecodeBatch(model, validData.batchSrc(0, validN), maxLen, BOS, EOS, PAD);
         for(int i=0;i<validN;i++) {
-            Tensor validSrcIn = validData.batchSrc(i, 1);
-            Tensor generated = Generator.greedyDecode(model, validSrcIn, maxLen, BOS, EOS, PAD);
-            System.out.println(validSrcIn);
-            System.out.println(generated);
+            System.out.println(validData.batchSrc(i, 1));
+            System.out.println(Arrays.toString(generated[i]));
         }
     }
 }
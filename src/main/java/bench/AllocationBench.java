@@ -0,0 +1,82 @@
+package bench;
+
+import nn.core.ActivationContext;
+import nn.core.Parameter;
+import nn.loss.CrossEntropyLoss;
+import nn.normalizer.LayerNorm;
+import nn.optimizer.Adam;
+import nn.optimizer.Optimizer;
+import nn.transformer.Transformer;
+import nn.transformer.attention.AttentionOps;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import nn.transformer.trainer.Trainer;
+import org.bytedeco.javacpp.Pointer;
+import tensor.Nd4jInit;
+import tensor.StepArena;
+import tensor.Tensor;
+
+// Off-heap bytes allocated per call : optimizer step, LayerNorm forward / backward, softmax, one training step
+// (with and without a StepArena).
+// Growth of JavaCPP's tracked bytes between calls : approximate (buffers the GC frees mid-run are not counted).
+public class AllocationBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 3, MAX_LEN = 20;
+    private static final int BATCH = 32, ITERS = 10;
+    private static final long BYTES = 4;         // FLOAT (Nd4jInit)
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+
+        Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+        Optimizer opt = new Adam(5e-3, 0.9, 0.98, 1e-8);
+        long paramBytes = 0;
+        for(Parameter p : model.parameters()) {
+            p.setGrad(Tensor.randn(p.getData().shape()));
+            paramBytes += BYTES * p.getData().size();
+        }
+
+        // Moment buffers are created by the first step
+        model.update(opt);
+        report("Adam step (whole model)", bytesPerCall(() -> model.update(opt)), paramBytes);
+
+        LayerNorm ln = new LayerNorm(D_MODEL, 1e-5, true);
+        Tensor X = Tensor.randn(BATCH, MAX_LEN, D_MODEL);
+        long actBytes = BYTES * X.size();
+        report("LayerNorm forward + backward", bytesPerCall(() -> {
+            try(ActivationContext ignored = ActivationContext.open()) {
+                ln.forward(X, true);
+                ln.calcGradients(X, false, 1.0);
+            }
+        }), actBytes);
+
+        Tensor scores = Tensor.randn(BATCH, HEADS, MAX_LEN, MAX_LEN);
+        report("softmax [B, H, T, T]", bytesPerCall(() -> AttentionOps.softmaxLast(scores)), BYTES * scores.size());
+
+        ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, BATCH, MAX_LEN, V,
+                BenchModels.PAD, BenchModels.BOS, BenchModels.EOS);
+        Trainer trainer = new Trainer(model, opt, new CrossEntropyLoss(), V, BenchModels.PAD);
+        report("train step (batch " + BATCH + ")", bytesPerCall(() -> trainer.trainEpoch(ds, BATCH)), paramBytes);
+
+        // Same step inside a StepArena : only what the arena cannot hold is allocated
+        StepArena arena = new StepArena("alloc-bench");
+        trainer.setStepArena(arena);
+        report("train step, step arena", bytesPerCall(() -> trainer.trainEpoch(ds, BATCH)), paramBytes);
+        System.out.printf("arena : highWater %.2f MB | capacity %.2f MB | reuse %.3f over %d steps%n",
+                arena.highWaterBytes() / 1e6, arena.capacityBytes() / 1e6, arena.reuseRate(), arena.steps());
+        arena.destroy();
+    }
+
+    // Mean growth of tracked off-heap bytes per call (after one warm-up call)
+    private static long bytesPerCall(Runnable call) {
+        call.run();
+
+        System.gc();
+        long before = Pointer.totalBytes();
+        for(int i=0;i<ITERS;i++) call.run();
+        return (Pointer.totalBytes() - before) / ITERS;
+    }
+
+    private static void report(String name, long bytes, long refBytes) {
+        System.out.printf("%-30s | %10.2f MB | %6.2f x reference%n", name, bytes / 1e6, (double) bytes / refBytes);
+    }
+}
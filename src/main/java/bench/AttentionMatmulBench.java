@@ -0,0 +1,59 @@
+package bench;
+
+import nn.transformer.attention.AttentionOps;
+import tensor.BatchedOps;
+import tensor.Nd4jInit;
+import tensor.Tensor;
+
+// Attention matmul throughput (Q x K^T and P x V on splitHeads views) : per-slice loop vs batched path
+public class AttentionMatmulBench {
+
+    private static final int D_H = 64;
+    private static final int WARMUP = 3;
+    private static final int ITERS = 10;
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+
+        int[][] bh = {{1, 8}, {4, 8}, {16, 8}, {32, 8}};    // (B, H) -> B*H = 8 .. 256
+        int[] ts = {32, 128, 512};
+
+        System.out.printf("%6s %6s | %12s %12s %12s | %8s %8s%n",
+                "B*H", "T", "loop GF/s", "native GF/s", "forkjoin GF/s", "x native", "x fj");
+
+        for(int[] p : bh) {
+            for(int T : ts) {
+                int B = p[0], H = p[1];
+                Tensor Q = AttentionOps.splitHeads(Tensor.randn(B, T, H * D_H), H);   // [B, H, T, d_h] (view)
+                Tensor K = AttentionOps.splitHeads(Tensor.randn(B, T, H * D_H), H);
+                Tensor Kt = K.transpose(-1, -2);
+
+                // Q x K^T : 2 * B*H * T * T * d_h flops
+                double flops = 2.0 * B * H * T * T * D_H;
+
+                double loop = gflops(flops, () -> BatchedOps.bmmulND2Loop(Q, Kt));
+
+                BatchedOps.setNativeBatched(true);
+                double nat = gflops(flops, () -> BatchedOps.bmmulND2(Q, Kt));
+
+                BatchedOps.setNativeBatched(false);
+                double fj = gflops(flops, () -> BatchedOps.bmmulND2(Q, Kt));
+
+                System.out.printf("%6d %6d | %12.2f %12.2f %12.2f | %8.2f %8.2f%n",
+                        B * H, T, loop, nat, fj, nat / loop, fj / loop);
+            }
+        }
+
+        BatchedOps.setNativeBatched(true);
+    }
+
+    private static double gflops(double flops, Runnable r) {
+        for(int i=0;i<WARMUP;i++) r.run();
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<ITERS;i++) r.run();
+        long dt = System.nanoTime() - t0;
+
+        return flops * ITERS / dt;      // flops / ns == GFLOP/s
+    }
+}
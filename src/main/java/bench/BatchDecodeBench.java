@@ -0,0 +1,49 @@
+package bench;
+
+import nn.transformer.Generator;
+import nn.transformer.Transformer;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import tensor.Nd4jInit;
+import tensor.Tensor;
+
+// Greedy decoding throughput (generated tokens/sec) : per-source loop vs greedyDecodeBatch
+public class BatchDecodeBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 3, MAX_LEN = 20;
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+
+        Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+        int[] batchSizes = {1, 4, 16, 64};
+
+        System.out.printf("%6s | %14s %14s | %8s%n", "N", "loop tok/s", "batch tok/s", "speedup");
+
+        for(int N : batchSizes) {
+            ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, N, MAX_LEN, V,
+                    BenchModels.PAD, BenchModels.BOS, BenchModels.EOS);
+            Tensor src = ds.batchSrc(0, N);
+
+            // Warm-up
+            Generator.greedyDecodeBatch(model, src, MAX_LEN, BenchModels.BOS, BenchModels.EOS, BenchModels.PAD);
+
+            long t0 = System.nanoTime();
+            long loopTokens = 0;
+            for(int i=0;i<N;i++) {
+                loopTokens += Generator.greedyDecode(model, ds.batchSrc(i, 1), MAX_LEN,
+                        BenchModels.BOS, BenchModels.EOS, BenchModels.PAD).size() + 1;
+            }
+            double loopSec = (System.nanoTime() - t0) / 1e9;
+
+            t0 = System.nanoTime();
+            long batchTokens = 0;
+            for(int[] row : Generator.greedyDecodeBatch(model, src, MAX_LEN, BenchModels.BOS, BenchModels.EOS, BenchModels.PAD)) {
+                batchTokens += row.length + 1;
+            }
+            double batchSec = (System.nanoTime() - t0) / 1e9;
+
+            double loopTps = loopTokens / loopSec, batchTps = batchTokens / batchSec;
+            System.out.printf("%6d | %14.1f %14.1f | %8.2f%n", N, loopTps, batchTps, batchTps / loopTps);
+        }
+    }
+}
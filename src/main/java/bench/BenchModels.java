@@ -0,0 +1,66 @@
+package bench;
+
+import nn.activation.GELU;
+import nn.distributed.ShardPool;
+import nn.initializer.HeNormal;
+import nn.initializer.XavierNormal;
+import nn.layers.ColumnParallelLinear;
+import nn.layers.Linear;
+import nn.layers.RowParallelLinear;
+import nn.normalizer.LayerNorm;
+import nn.transformer.Transformer;
+import nn.transformer.attention.ShardedMultiHeadAttention;
+import nn.transformer.embeddings.SinusoidalPositionalEncoding;
+import nn.transformer.embeddings.TokenEmbeddings;
+import nn.transformer.modules.Decoder;
+import nn.transformer.modules.Encoder;
+import nn.transformer.modules.FeedForwardNetwork;
+
+import java.util.function.Supplier;
+
+// Untrained models with the same wiring as Main (weight tying included), for benchmarks
+public class BenchModels {
+
+    public static final int PAD = 0, BOS = 1, EOS = 2;
+
+    public static Transformer transformer(int V, int d_model, int nHead, int d_hidden, int numLayers, int maxLen) {
+        TokenEmbeddings srcEmb = new TokenEmbeddings(V, d_model, PAD, new XavierNormal(), true, 0.0);
+        TokenEmbeddings tgtEmb = new TokenEmbeddings(V, d_model, PAD, new XavierNormal(), true, 0.0);
+        SinusoidalPositionalEncoding posEnc = new SinusoidalPositionalEncoding(maxLen, d_model);
+        Encoder encoder = new Encoder(d_model, d_hidden, nHead, numLayers, () -> new LayerNorm(d_model, 1e-5, true), true, 0.0, 0.0);
+        Decoder decoder = new Decoder(d_model, d_hidden, nHead, numLayers, () -> new LayerNorm(d_model, 1e-5, true), true, 0.0, 0.0);
+        Linear lmHead = new Linear(d_model, V, new XavierNormal(), new HeNormal(), true, 0.0);
+
+        // Weight tying
+        lmHead.setParameter(tgtEmb.parameters().get(0));
+
+        return new Transformer(srcEmb, tgtEmb, posEnc, encoder, decoder, lmHead, PAD, BOS, EOS);
+    }
+
+    // Same model with tensor-parallel blocks : attention heads and FFN columns / rows split into numShards
+    public static Transformer tensorParallel(int V, int d_model, int nHead, int d_hidden, int numLayers, int maxLen,
+                                             int numShards, ShardPool pool) {
+        TokenEmbeddings srcEmb = new TokenEmbeddings(V, d_model, PAD, new XavierNormal(), true, 0.0);
+        TokenEmbeddings tgtEmb = new TokenEmbeddings(V, d_model, PAD, new XavierNormal(), true, 0.0);
+        SinusoidalPositionalEncoding posEnc = new SinusoidalPositionalEncoding(maxLen, d_model);
+        Supplier<LayerNorm> norm = () -> new LayerNorm(d_model, 1e-5, true);
+        Supplier<FeedForwardNetwork> ffn = () -> new FeedForwardNetwork(
+                new ColumnParallelLinear(d_model, d_hidden, new XavierNormal(), new HeNormal(), true, 0.0, numShards, pool),
+                new RowParallelLinear(d_hidden, d_model, new XavierNormal(), new HeNormal(), true, 0.0, numShards, pool),
+                new GELU(true), true, 0.0);
+
+        Encoder encoder = new Encoder(numLayers, norm, () -> attention(d_model, nHead, false, numShards, pool), ffn, true, false);
+        Decoder decoder = new Decoder(numLayers, norm, () -> attention(d_model, nHead, false, numShards, pool),
+                () -> attention(d_model, nHead, true, numShards, pool), ffn, true, false);
+        Linear lmHead = new Linear(d_model, V, new XavierNormal(), new HeNormal(), true, 0.0);
+
+        // Weight tying
+        lmHead.setParameter(tgtEmb.parameters().get(0));
+
+        return new Transformer(srcEmb, tgtEmb, posEnc, encoder, decoder, lmHead, PAD, BOS, EOS);
+    }
+
+    private static ShardedMultiHeadAttention attention(int d_model, int nHead, boolean isCross, int numShards, ShardPool pool) {
+        return new ShardedMultiHeadAttention(d_model, nHead, new XavierNormal(), true, 0.0, 0.0, isCross, false, numShards, pool);
+    }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import nn.transformer.Generator;
+import nn.transformer.Transformer;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import tensor.Nd4jInit;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// N threads decoding on ONE shared Transformer : throughput, and outputs checked against a sequential run
+public class ConcurrentInferenceBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 3, MAX_LEN = 20;
+    private static final int REQUESTS = 64;
+
+    public static void main(String[] args) throws Exception {
+        Nd4jInit.configure();
+
+        Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+        ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, REQUESTS, MAX_LEN, V,
+                BenchModels.PAD, BenchModels.BOS, BenchModels.EOS);
+
+        // Sequential reference
+        int[][] expected = new int[REQUESTS][];
+        for(int i=0;i<REQUESTS;i++) expected[i] = decode(model, ds.batchSrc(i, 1));
+
+        System.out.printf("%8s | %10s | %8s%n", "threads", "req/s", "match");
+
+        for(int threads : new int[]{1, 2, 4, 8}) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<int[]>> results = new ArrayList<>();
+
+            long t0 = System.nanoTime();
+            for(int i=0;i<REQUESTS;i++) {
+                Tensor src = ds.batchSrc(i, 1);
+                results.add(pool.submit(() -> decode(model, src)));
+            }
+
+            boolean match = true;
+            for(int i=0;i<REQUESTS;i++) match &= Arrays.equals(expected[i], results.get(i).get());
+            double sec = (System.nanoTime() - t0) / 1e9;
+
+            pool.shutdown();
+            System.out.printf("%8d | %10.1f | %8s%n", threads, REQUESTS / sec, match);
+        }
+    }
+
+    private static int[] decode(Transformer model, Tensor src) {
+        return Generator.greedyDecodeBatch(model, src, MAX_LEN, BenchModels.BOS, BenchModels.EOS, BenchModels.PAD)[0];
+    }
+}
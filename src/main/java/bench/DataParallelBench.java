@@ -0,0 +1,47 @@
+package bench;
+
+import nn.loss.CrossEntropyLoss;
+import nn.optimizer.Adam;
+import nn.transformer.Transformer;
+import nn.transformer.trainer.DataParallelTrainer;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import tensor.Nd4jInit;
+
+// Training throughput (samples/sec) of DataParallelTrainer for 1 .. #cores replicas (run with OMP_NUM_THREADS=1)
+public class DataParallelBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 3, MAX_LEN = 20;
+    private static final int SAMPLES = 512, BATCH = 64;
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+
+        ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, SAMPLES, MAX_LEN, V,
+                BenchModels.PAD, BenchModels.BOS, BenchModels.EOS);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%8s | %12s | %8s | %10s%n", "replicas", "samples/s", "speedup", "loss");
+
+        double base = 0.0;
+        for(int n=1;n<=cores;n*=2) {
+            Transformer model = newModel();
+            try(DataParallelTrainer trainer = new DataParallelTrainer(model, DataParallelBench::newModel,
+                    new Adam(5e-3, 0.9, 0.98, 1e-8), CrossEntropyLoss::new, n, BenchModels.PAD)) {
+
+                // Warm-up step
+                trainer.trainStep(ds, 0, BATCH);
+
+                long t0 = System.nanoTime();
+                double[] res = trainer.trainEpoch(ds, BATCH);
+                double sps = SAMPLES / ((System.nanoTime() - t0) / 1e9);
+
+                if(n == 1) base = sps;
+                System.out.printf("%8d | %12.1f | %8.2f | %10.4f%n", n, sps, sps / base, res[0]);
+            }
+        }
+    }
+
+    private static Transformer newModel() {
+        return BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+    }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import nn.distributed.GradientBuckets;
+import nn.distributed.RingAllReduce;
+import nn.loss.CrossEntropyLoss;
+import nn.optimizer.Adam;
+import nn.transformer.Transformer;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import nn.transformer.trainer.Trainer;
+import tensor.Nd4jInit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Multi-process data-parallel training over loopback TCP.
+ *
+ *   no args            : launcher, starts WORLD worker JVMs (same classpath) and waits for them
+ *   rank world port    : worker, joins the ring on 127.0.0.1:port+rank and trains
+ *
+ * Rank 0 prints loss / accuracy and, per epoch, the all-reduce time of the last step and how much of it was
+ * not hidden behind backward.
+ */
+public class DistributedTrainBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 3, MAX_LEN = 20;
+    private static final int SAMPLES = 512, BATCH = 64, EPOCHS = 5;
+    private static final int WORLD = 2, BASE_PORT = 29500;
+    private static final long DATA_SEED = 42, CONNECT_TIMEOUT_MS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0) launch(WORLD, BASE_PORT);
+        else worker(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+
+    private static void launch(int world, int port) throws Exception {
+        String java = System.getProperty("java.home") + "/bin/java";
+        String cp = System.getProperty("java.class.path");
+
+        List<Process> workers = new ArrayList<>();
+        for(int r=0;r<world;r++) {
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", cp, DistributedTrainBench.class.getName(),
+                    String.valueOf(r), String.valueOf(world), String.valueOf(port));
+            pb.inheritIO();
+            workers.add(pb.start());
+        }
+
+        int failed = 0;
+        for(Process p : workers) if(p.waitFor() != 0) failed++;
+        if(failed > 0) throw new IllegalStateException(failed + " worker(s) failed");
+    }
+
+    private static void worker(int rank, int world, int port) throws Exception {
+        Nd4jInit.configure();
+
+        // Same data on every rank, each step uses its own slice of the batch
+        ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, SAMPLES, MAX_LEN, V,
+                BenchModels.PAD, BenchModels.BOS, BenchModels.EOS, DATA_SEED);
+        Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+
+        try(RingAllReduce ring = RingAllReduce.connect(rank, world, "127.0.0.1", port, CONNECT_TIMEOUT_MS);
+            GradientBuckets dist = new GradientBuckets(model.parameters(), ring)) {
+
+            dist.broadcastWeights();
+
+            Trainer trainer = new Trainer(model, new Adam(5e-3, 0.9, 0.98, 1e-8), new CrossEntropyLoss(),
+                    V, BenchModels.PAD, dist);
+
+            if(rank == 0) System.out.printf("world %d, %d buckets%n%6s | %10s | %8s | %10s | %10s | %8s%n",
+                    world, dist.numBuckets(), "epoch", "loss", "acc", "comm ms", "exposed ms", "sec");
+
+            for(int epoch=1;epoch<=EPOCHS;epoch++) {
+                long t0 = System.nanoTime();
+                double[] res = trainer.trainEpoch(ds, BATCH);
+                double sec = (System.nanoTime() - t0) / 1e9;
+
+                if(rank == 0) System.out.printf("%6d | %10.4f | %8.4f | %10.2f | %10.2f | %8.2f%n",
+                        epoch, res[0], res[1], dist.commMillis(), dist.exposedMillis(), sec);
+            }
+
+            if(rank == 0) System.out.printf("bytes sent by rank 0 : %d%n", ring.bytesSent());
+        }
+    }
+}
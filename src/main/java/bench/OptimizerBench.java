@@ -0,0 +1,71 @@
+package bench;
+
+import nn.core.Parameter;
+import nn.loss.CrossEntropyLoss;
+import nn.optimizer.Adam;
+import nn.optimizer.FusedAdam;
+import nn.optimizer.Optimizer;
+import nn.transformer.Transformer;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import tensor.Nd4jInit;
+import tensor.Tensor;
+
+// Time of one optimizer update (per-parameter Adam vs. FusedAdam) next to one backward pass of the same model
+public class OptimizerBench {
+
+    private static final int V = 1000, D_MODEL = 256, HEADS = 4, D_HIDDEN = 1024, LAYERS = 4, MAX_LEN = 20;
+    private static final int BATCH = 32, WARMUP = 3, ITERS = 10;
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Transformer model = newModel();
+        ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, BATCH, MAX_LEN, V,
+                BenchModels.PAD, BenchModels.BOS, BenchModels.EOS);
+        Tensor src = ds.batchSrc(0, BATCH), tgtIn = ds.batchTgtIn(0, BATCH), tgtOut = ds.batchTgtOut(0, BATCH);
+        CrossEntropyLoss loss = new CrossEntropyLoss();
+
+        double backward = millis(() -> {
+            Tensor logits = model.forward(src, tgtIn, true);
+            loss.forward(logits, tgtOut, tgtOut.ne(BenchModels.PAD));
+            model.backward(loss.backward(), false, 1.0);
+            model.zeroGrad();
+        });
+
+        Transformer plain = newModel();
+        double adam = updateMillis(plain, new Adam(1e-4, 0.9, 0.98, 1e-8));
+
+        Transformer fused = newModel();
+        double fusedMs;
+        try(FusedAdam opt = new FusedAdam(fused.parameters(), 1e-4, 0.9, 0.98, 1e-8, 0.01, cores)) {
+            fusedMs = updateMillis(fused, opt);
+            System.out.printf("parameters : %d elements%n", opt.numElements());
+        }
+
+        System.out.printf("%-22s | %10s | %12s%n", "", "ms", "x backward");
+        System.out.printf("%-22s | %10.2f | %12.3f%n", "forward + backward", backward, 1.0);
+        System.out.printf("%-22s | %10.2f | %12.3f%n", "Adam update", adam, adam / backward);
+        System.out.printf("%-22s | %10.2f | %12.3f%n", "FusedAdam(W) update", fusedMs, fusedMs / backward);
+    }
+
+    // Mean time of model.update() with fixed random gradients
+    private static double updateMillis(Transformer model, Optimizer opt) {
+        return millis(() -> {
+            for(Parameter p : model.parameters()) if(p.getGrad() == null) p.setGrad(Tensor.randn(p.getData().shape()));
+            model.update(opt);
+        });
+    }
+
+    private static double millis(Runnable call) {
+        for(int i=0;i<WARMUP;i++) call.run();
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<ITERS;i++) call.run();
+        return (System.nanoTime() - t0) / 1e6 / ITERS;
+    }
+
+    private static Transformer newModel() {
+        return BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+    }
+}
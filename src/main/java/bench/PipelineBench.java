@@ -0,0 +1,48 @@
+package bench;
+
+import nn.loss.CrossEntropyLoss;
+import nn.optimizer.Adam;
+import nn.transformer.Transformer;
+import nn.transformer.pipeline.PipelineSchedule;
+import nn.transformer.trainer.PipelineTrainer;
+import nn.transformer.trainer.ToySeq2SeqDataset;
+import tensor.Nd4jInit;
+
+// PipelineTrainer : throughput, per-stage utilization and bubble fraction vs. micro-batch count (OMP_NUM_THREADS=1)
+public class PipelineBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 4, MAX_LEN = 20;
+    private static final int SAMPLES = 256, BATCH = 64, STAGES = 4;
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+
+        ToySeq2SeqDataset ds = ToySeq2SeqDataset.make(ToySeq2SeqDataset.Task.REVERSE, SAMPLES, MAX_LEN, V,
+                BenchModels.PAD, BenchModels.BOS, BenchModels.EOS);
+
+        System.out.printf("%6s | %12s | %8s | %8s | %s%n", "micro", "samples/s", "bubble", "ideal", "utilization");
+
+        for(int micro : new int[]{1, 2, 4, 8, 16}) {
+            Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+            try(PipelineTrainer trainer = new PipelineTrainer(model, new Adam(5e-3, 0.9, 0.98, 1e-8),
+                    new CrossEntropyLoss(), STAGES, micro, BenchModels.PAD)) {
+
+                if(micro == 1) System.out.print(trainer.describeStages());
+
+                // Warm-up step
+                trainer.trainStep(ds, 0, BATCH);
+
+                long t0 = System.nanoTime();
+                trainer.trainEpoch(ds, BATCH);
+                double sps = SAMPLES / ((System.nanoTime() - t0) / 1e9);
+
+                double[] util = trainer.stageUtilization();
+                StringBuilder u = new StringBuilder();
+                for(double x : util) u.append(String.format("%5.2f ", x));
+
+                System.out.printf("%6d | %12.1f | %8.3f | %8.3f | %s%n", micro, sps, trainer.bubbleFraction(),
+                        PipelineSchedule.idealBubble(STAGES, micro), u.toString().trim());
+            }
+        }
+    }
+}
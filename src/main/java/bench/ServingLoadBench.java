@@ -0,0 +1,79 @@
+package bench;
+
+import nn.transformer.InferenceEngine;
+import nn.transformer.Transformer;
+import tensor.Nd4jInit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Synthetic load on InferenceEngine : concurrent clients submit random sources with random think time
+public class ServingLoadBench {
+
+    private static final int V = 200, D_MODEL = 128, HEADS = 2, D_HIDDEN = 512, LAYERS = 3, MAX_LEN = 20;
+
+    public static void main(String[] args) throws Exception {
+        Nd4jInit.configure();
+
+        int clients = 16, requestsPerClient = 8, maxBatch = 32;
+        Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+
+        try(InferenceEngine engine = new InferenceEngine(model, maxBatch, MAX_LEN, MAX_LEN,
+                BenchModels.BOS, BenchModels.EOS, BenchModels.PAD).start()) {
+
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            List<CompletableFuture<Long>> latencies = new ArrayList<>();
+            long t0 = System.nanoTime();
+
+            for(int i=0;i<clients * requestsPerClient;i++) latencies.add(new CompletableFuture<>());
+
+            for(int c=0;c<clients;c++) {
+                final long seed = c;
+                final int base = c * requestsPerClient;
+                pool.submit(() -> {
+                    Random rnd = new Random(seed);
+                    for(int i=0;i<requestsPerClient;i++) {
+                        int[] src = new int[1 + rnd.nextInt(MAX_LEN)];
+                        for(int j=0;j<src.length;j++) src[j] = 3 + rnd.nextInt(V - 3);
+
+                        long start = System.nanoTime();
+                        CompletableFuture<Long> lat = latencies.get(base + i);
+                        engine.submit(src).whenComplete((out, err) -> {
+                            if(err != null) lat.completeExceptionally(err);
+                            else lat.complete(System.nanoTime() - start);
+                        });
+
+                        try {
+                            Thread.sleep(rnd.nextInt(20));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                });
+            }
+
+            // Metrics while the load runs
+            CompletableFuture<Void> all = CompletableFuture.allOf(latencies.toArray(new CompletableFuture[0]));
+            while(!all.isDone()) {
+                System.out.println(engine.metrics());
+                Thread.sleep(200);
+            }
+            double sec = (System.nanoTime() - t0) / 1e9;
+
+            long[] ms = latencies.stream().mapToLong(f -> f.join() / 1_000_000).sorted().toArray();
+            System.out.println(engine.metrics());
+            System.out.printf("requests=%d | %.2f s | %.1f req/s | %.1f tok/s | latency ms p50=%d p90=%d max=%d%n",
+                    ms.length, sec, ms.length / sec, engine.metrics().getGeneratedTokens() / sec,
+                    ms[ms.length / 2], ms[(int) (ms.length * 0.9)], Arrays.stream(ms).max().orElse(0));
+
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import nn.activation.GELU;
+import nn.core.ActivationContext;
+import nn.core.Module;
+import nn.distributed.ShardPool;
+import nn.initializer.HeNormal;
+import nn.initializer.XavierNormal;
+import nn.layers.ColumnParallelLinear;
+import nn.layers.RowParallelLinear;
+import nn.transformer.Generator;
+import nn.transformer.Transformer;
+import nn.transformer.attention.MultiHeadAttention;
+import nn.transformer.attention.ShardedMultiHeadAttention;
+import nn.transformer.mask.MaskUtils;
+import nn.transformer.modules.FeedForwardNetwork;
+import org.nd4j.linalg.factory.Nd4j;
+import tensor.Nd4jInit;
+import tensor.Tensor;
+
+import java.util.function.Supplier;
+
+// Single-request latency of a wide FFN, of self-attention and of a whole greedy decode, plain vs. sharded over
+// 1 .. #cores threads (run with OMP_NUM_THREADS=1 so the speed-up comes from the shards, not from ND4J)
+public class TensorParallelBench {
+
+    private static final int D_MODEL = 512, D_HIDDEN = 4096, HEADS = 8, T = 64;
+    private static final int V = 1000, LAYERS = 2, MAX_LEN = 32;
+    private static final int WARMUP = 5, ITERS = 20;
+
+    public static void main(String[] args) {
+        Nd4jInit.configure();
+
+        Tensor X = Tensor.randn(1, T, D_MODEL);
+        Tensor mask = MaskUtils.causalMask(1, T);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        FeedForwardNetwork ffn = new FeedForwardNetwork(D_MODEL, D_HIDDEN, new GELU(true),
+                new XavierNormal(), new HeNormal(), false, 0.0);
+        MultiHeadAttention mha = new MultiHeadAttention(D_MODEL, HEADS, new XavierNormal(), false, 0.0, 0.0, false);
+
+        int[] ids = new int[MAX_LEN / 2];
+        for(int i=0;i<ids.length;i++) ids[i] = 3 + i % (V - 3);
+        Tensor src = new Tensor(Nd4j.createFromArray(new int[][]{ids}));
+        Transformer model = BenchModels.transformer(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN);
+
+        double ffnBase = millis(() -> ffn.forward(X, false));
+        double mhaBase = millis(() -> mha.forwardMany(false, X, X, mask));
+        double decBase = millis(() -> decode(model, src));
+
+        System.out.printf("%8s | %10s | %8s | %10s | %8s | %10s | %8s%n",
+                "shards", "FFN ms", "speedup", "MHA ms", "speedup", "decode ms", "speedup");
+        System.out.printf("%8s | %10.2f | %8.2f | %10.2f | %8.2f | %10.2f | %8.2f%n",
+                "plain", ffnBase, 1.0, mhaBase, 1.0, decBase, 1.0);
+
+        for(int n=1;n<=Math.min(cores, HEADS);n*=2) {
+            try(ShardPool pool = new ShardPool(n)) {
+                Module l1 = new ColumnParallelLinear(D_MODEL, D_HIDDEN, new XavierNormal(), new HeNormal(), false, 0.0, n, pool);
+                Module l2 = new RowParallelLinear(D_HIDDEN, D_MODEL, new XavierNormal(), new HeNormal(), false, 0.0, n, pool);
+                FeedForwardNetwork tpFfn = new FeedForwardNetwork(l1, l2, new GELU(true), false, 0.0);
+                ShardedMultiHeadAttention tpMha = new ShardedMultiHeadAttention(D_MODEL, HEADS, new XavierNormal(),
+                        false, 0.0, 0.0, false, false, n, pool);
+
+                Transformer tpModel = BenchModels.tensorParallel(V, D_MODEL, HEADS, D_HIDDEN, LAYERS, MAX_LEN, n, pool);
+
+                double f = millis(() -> tpFfn.forward(X, false));
+                double m = millis(() -> tpMha.forwardMany(false, X, X, mask));
+                double d = millis(() -> decode(tpModel, src));
+                System.out.printf("%8d | %10.2f | %8.2f | %10.2f | %8.2f | %10.2f | %8.2f%n",
+                        n, f, ffnBase / f, m, mhaBase / m, d, decBase / d);
+            }
+        }
+    }
+
+    // Greedy decode of one source (incremental, KV-cached)
+    private static Tensor decode(Transformer model, Tensor src) {
+        return Generator.greedyDecode(model, src, MAX_LEN, BenchModels.BOS, BenchModels.EOS, BenchModels.PAD);
+    }
+
+    // Mean latency of one inference call (no-grad)
+    private static double millis(Supplier<Tensor> call) {
+        for(int i=0;i<WARMUP;i++) run(call);
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<ITERS;i++) run(call);
+        return (System.nanoTime() - t0) / 1e6 / ITERS;
+    }
+
+    private static void run(Supplier<Tensor> call) {
+        try(ActivationContext ignored = ActivationContext.noGrad()) {
+            call.get();
+        }
+    }
+}
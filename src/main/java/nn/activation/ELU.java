@@ -1,12 +1,16 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class ELU implements Activation {
 
     private final double alpha;
-    private Tensor cX;
-    private Tensor cExp;
+
+    private static final class Cache {
+        Tensor cX;
+        Tensor cExp;
+    }
 
     public ELU(double alpha) {
         this.alpha = alpha;
@@ -14,13 +18,15 @@ public class ELU implements Activation {
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cX = X;
-        this.cExp = X.exp();
-        return X.gt(0.0).mul(X).add(X.le(0.0).mul(cExp.sub(1.0).mul(alpha)));
+        Cache c = ActivationContext.current().cache(this, Cache::new);
+        c.cX = X;
+        c.cExp = X.exp();
+        return X.gt(0.0).mul(X).add(X.le(0.0).mul(c.cExp.sub(1.0).mul(alpha)));
     }
 
     @Override
     public Tensor backward(Tensor dY) {
-        return dY.mul(cX.lt(0.0).mul(cExp.mul(alpha)).add(cX.ge(0.0)));
+        Cache c = ActivationContext.current().peek(this);
+        return dY.mul(c.cX.lt(0.0).mul(c.cExp.mul(alpha)).add(c.cX.ge(0.0)));
     }
 }
@@ -1,11 +1,15 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class GELU implements Activation {
 
     private final boolean precise;
-    private Tensor cX;
+
+    private static final class Cache {
+        Tensor cX;
+    }
 
     public GELU(boolean precise) {
         this.precise = precise;
@@ -13,12 +17,13 @@ public class GELU implements Activation {
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cX = X;
+        ActivationContext.current().<Cache>cache(this, Cache::new).cX = X;
         return precise ? X.geluExact() : X.geluApprox();
     }
 
     @Override
     public Tensor backward(Tensor dY) {
+        Tensor cX = ActivationContext.current().<Cache>peek(this).cX;
         return dY.mul(precise ? cX.geluExactGrad() : cX.geluApproxGrad());
     }
 }
@@ -1,11 +1,15 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class LeakyReLU implements Activation {
 
     private final double alpha;
-    private Tensor cX;
+
+    private static final class Cache {
+        Tensor cX;
+    }
 
     public LeakyReLU(double alpha) {
         this.alpha = alpha;
@@ -13,12 +17,13 @@ public class LeakyReLU implements Activation {
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cX = X;
+        ActivationContext.current().<Cache>cache(this, Cache::new).cX = X;
         return X.leakyRelu(alpha);
     }
 
     @Override
     public Tensor backward(Tensor dY) {
+        Tensor cX = ActivationContext.current().<Cache>peek(this).cX;
         return dY.mul(cX.gt(0.0).add(cX.le(0.0).mul(alpha)));
     }
 }
@@ -1,19 +1,23 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class ReLU implements Activation {
 
-    private Tensor cX;
+    private static final class Cache {
+        Tensor cX;
+    }
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cX = X;
+        ActivationContext.current().<Cache>cache(this, Cache::new).cX = X;
         return X.relu();
     }
 
     @Override
     public Tensor backward(Tensor dY) {
+        Tensor cX = ActivationContext.current().<Cache>peek(this).cX;
         return dY.mul(cX.gt(0.0));
     }
 }
@@ -1,22 +1,27 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class SiLU implements Activation {
 
-    private Tensor cSigmoid;
-    private Tensor cY;
+    private static final class Cache {
+        Tensor cSigmoid;
+        Tensor cY;
+    }
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cSigmoid = X.sigmoid();
-        this.cY = X.mul(cSigmoid);
-        return cY;
+        Cache c = ActivationContext.current().cache(this, Cache::new);
+        c.cSigmoid = X.sigmoid();
+        c.cY = X.mul(c.cSigmoid);
+        return c.cY;
     }
 
     @Override
     public Tensor backward(Tensor dY) {
-        Tensor grad = cSigmoid.add(cSigmoid.neg().add(1.0).mul(cY));
+        Cache c = ActivationContext.current().peek(this);
+        Tensor grad = c.cSigmoid.add(c.cSigmoid.neg().add(1.0).mul(c.cY));
         return dY.mul(grad);
     }
 }
@@ -1,19 +1,24 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class Sigmoid implements Activation {
 
-    private Tensor cY;
+    private static final class Cache {
+        Tensor cY;
+    }
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cY = X.sigmoid();
-        return cY;
+        Tensor Y = X.sigmoid();
+        ActivationContext.current().<Cache>cache(this, Cache::new).cY = Y;
+        return Y;
     }
 
     @Override
     public Tensor backward(Tensor dY) {
+        Tensor cY = ActivationContext.current().<Cache>peek(this).cY;
         return dY.mul(cY.mul(cY.neg().add(1.0)));
     }
 }
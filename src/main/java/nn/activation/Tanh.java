@@ -1,19 +1,24 @@
 package nn.activation;
 
+import nn.core.ActivationContext;
 import tensor.Tensor;
 
 public class Tanh implements Activation {
 
-    private Tensor cY;
+    private static final class Cache {
+        Tensor cY;
+    }
 
     @Override
     public Tensor forward(Tensor X) {
-        this.cY = X.tanh();
-        return cY;
+        Tensor Y = X.tanh();
+        ActivationContext.current().<Cache>cache(this, Cache::new).cY = Y;
+        return Y;
     }
 
     @Override
     public Tensor backward(Tensor dY) {
+        Tensor cY = ActivationContext.current().<Cache>peek(this).cY;
         return dY.mul(cY.pow(2.0).neg().add(1.0));
     }
 }
@@ -0,0 +1,142 @@
+package nn.core;
+
+import tensor.Tensor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/*
+ * Where modules keep forward activations (the tensors their backward needs), one cache object per module.
+ * Module weights are only read in forward, so a model is safe to share between threads as long as every
+ * concurrent call runs in its own context :
+ *
+ *   try(ActivationContext ctx = ActivationContext.open()) {
+ *       logits = model.forward(src, tgt, false);
+ *   }
+ *
+ * open() binds the new context to the calling thread until close() (contexts nest). Without an open context,
+ * modules use one shared process-wide context, i.e. the single-caller behaviour of a plain training loop.
+ * The shared context holds modules weakly (a model that is dropped does not stay reachable through it), but its
+ * activations stay until zeroGrad() : loops that own the step should open() a context per step instead.
+ *
+ * noGrad() opens an inference context that keeps nothing : modules get a throwaway cache on every forward,
+ * and their intermediate tensors are freed as soon as the next one is computed (see discard()), so peak
+ * memory stays around one layer's working set. Backward is not possible inside it.
+ *
+ * detached() makes a context that belongs to no thread : it is bound only for the duration of call(), so one
+ * thread can interleave the forward / backward of several independent passes (pipeline micro-batches).
+ */
+public final class ActivationContext implements AutoCloseable {
+
+    private static final ActivationContext SHARED =
+            new ActivationContext(Collections.synchronizedMap(new WeakHashMap<>()), null, false, false, true);
+    private static final ThreadLocal<ActivationContext> CURRENT = new ThreadLocal<>();
+
+    private final Map<Object, Object> caches;
+    private final ActivationContext previous;
+    private final Thread owner;
+    private final boolean noGrad, detached;
+
+    private ActivationContext(Map<Object, Object> caches, ActivationContext previous, boolean noGrad, boolean detached,
+                              boolean shared) {
+        this.caches = caches;
+        this.previous = previous;
+        this.noGrad = noGrad;
+        this.detached = detached;
+        this.owner = (shared || detached) ? null : Thread.currentThread();
+    }
+
+    // New context bound to the calling thread (confined to it, no locking)
+    public static ActivationContext open() {
+        return bind(new ActivationContext(new HashMap<>(), CURRENT.get(), false, false, false));
+    }
+
+    // Inference-only context bound to the calling thread : no activation is retained
+    public static ActivationContext noGrad() {
+        return bind(new ActivationContext(new HashMap<>(), CURRENT.get(), true, false, false));
+    }
+
+    // Unbound context, used through call() (one thread at a time, no locking)
+    public static ActivationContext detached() {
+        return new ActivationContext(new HashMap<>(), null, false, true, false);
+    }
+
+    // Detached child for work done on another thread on behalf of this context (same no-grad mode)
+    public ActivationContext fork() {
+        return new ActivationContext(new HashMap<>(), null, noGrad, true, false);
+    }
+
+    // Runs body with this detached context bound to the calling thread, then restores the thread's context
+    public <R> R call(Supplier<R> body) {
+        if(!detached) throw new IllegalStateException("call() needs a detached ActivationContext");
+
+        ActivationContext prev = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return body.get();
+        } finally {
+            if(prev != null) CURRENT.set(prev);
+            else CURRENT.remove();
+        }
+    }
+
+    private static ActivationContext bind(ActivationContext ctx) {
+        CURRENT.set(ctx);
+        return ctx;
+    }
+
+    // Context of the calling thread, or the shared one
+    public static ActivationContext current() {
+        ActivationContext ctx = CURRENT.get();
+        return (ctx != null) ? ctx : SHARED;
+    }
+
+    // Cache object of owner in this context, created on first use
+    // No-grad : a fresh object that is not kept
+    @SuppressWarnings("unchecked")
+    public <C> C cache(Object owner, Supplier<C> factory) {
+        if(noGrad) return factory.get();
+        return (C) caches.computeIfAbsent(owner, k -> factory.get());
+    }
+
+    // Cache object of owner, or null if owner has not run forward in this context
+    @SuppressWarnings("unchecked")
+    public <C> C peek(Object owner) {
+        if(noGrad) throw new IllegalStateException("No activations are kept in a no-grad ActivationContext");
+        return (C) caches.get(owner);
+    }
+
+    public boolean isNoGrad() {
+        return noGrad;
+    }
+
+    // No-grad : frees forward temporaries now (nulls and views are skipped). Otherwise a no-op
+    public void discard(Tensor... tensors) {
+        if(!noGrad) return;
+        for(Tensor t : tensors) if(t != null) t.release();
+    }
+
+    public void evict(Object owner) {
+        caches.remove(owner);
+    }
+
+    // Drops every cached activation and restores the thread's previous context
+    @Override
+    public void close() {
+        if(this == SHARED) throw new IllegalStateException("Shared ActivationContext cannot be closed");
+        if(detached) {
+            caches.clear();
+            return;
+        }
+        if(Thread.currentThread() != owner)
+            throw new IllegalStateException("ActivationContext closed from another thread");
+        if(CURRENT.get() != this) throw new IllegalStateException("ActivationContexts must be closed in LIFO order");
+
+        caches.clear();
+        if(previous != null) CURRENT.set(previous);
+        else CURRENT.remove();
+    }
+}
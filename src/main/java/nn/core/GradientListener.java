@@ -0,0 +1,11 @@
+package nn.core;
+
+import java.util.List;
+
+// Called during backward as soon as the gradients of params are final for this step (e.g. to start communication)
+@FunctionalInterface
+public interface GradientListener {
+
+    void onGradientsReady(List<Parameter> params);
+
+}
@@ -1,12 +1,18 @@
 package nn.core;
 
+import org.nd4j.linalg.api.ndarray.INDArray;
+import tensor.StepArena;
 import tensor.Tensor;
 
 public class Parameter {
 
     private final String name;
     private Tensor data;
+
+    // Persistent gradient buffer (shape of data), allocated on first use and reused by every backward.
+    // hasGrad = false : its content is stale (zeroGrad), getGrad() reports no gradient
     private Tensor grad;
+    private boolean hasGrad = false;
 
     private boolean trainable = true;
 
@@ -18,14 +24,45 @@ public class Parameter {
 
     public String getName() { return name; }
     public Tensor getData() { return data; }
-    public Tensor getGrad() { return grad; }
+    public Tensor getGrad() { return hasGrad ? grad : null; }
 
     public void setData(Tensor data) {
         this.data = data;
     }
 
+    /*
+     * Gradient buffer to add this backward's gradient into, in place (e.g. GEMM with beta = 1) :
+     * kept as is when accumulating onto the current gradient, zeroed in place otherwise.
+     */
+    public Tensor gradBuffer(boolean accumulate) {
+        if(grad == null) grad = StepArena.detached(() -> Tensor.zeros(data.shape()));
+        else if(!(accumulate && hasGrad)) grad.getNDArray().assign(0.0);
+
+        hasGrad = true;
+        return grad;
+    }
+
+    // Gradient storage provided by the caller (e.g. a view of an optimizer's flat buffer)
+    public void bindGradBuffer(Tensor buffer) {
+        if(buffer.size() != data.size())
+            throw new IllegalArgumentException("Gradient buffer of " + name + " must have " + data.size() + " elements");
+
+        this.grad = buffer;
+        this.hasGrad = false;
+    }
+
+    // Copies grad into the buffer (null : no gradient)
     public void setGrad(Tensor grad) {
-        this.grad = grad;
+        if(grad == null) {
+            hasGrad = false;
+            return;
+        }
+        if(this.grad != null && grad.getNDArray() == this.grad.getNDArray()) {
+            hasGrad = true;
+            return;
+        }
+
+        gradBuffer(false).getNDArray().assign(asGradShape(grad));
     }
 
     public void setTrainable(boolean trainable) {
@@ -34,11 +71,19 @@ public class Parameter {
 
     public boolean isTrainable() { return trainable; }
 
+    // The buffer is kept : zeroed by the next write
     public void zeroGrad() {
-        grad = null;
+        hasGrad = false;
     }
 
     public void addGrad(Tensor grad) {
-        this.grad = (this.grad == null) ? grad : this.grad.add(grad);
+        gradBuffer(true).getNDArray().addi(asGradShape(grad));
+    }
+
+    private INDArray asGradShape(Tensor g) {
+        if(g.size() != data.size())
+            throw new IllegalArgumentException("Gradient of " + name + " has " + g.size() + " elements, expected " + data.size());
+
+        return g.getNDArray().reshape(this.grad.getNDArray().shape());
     }
 }
@@ -0,0 +1,68 @@
+package nn.core;
+
+import nn.optimizer.Optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Parameters of a group of modules, each Parameter once (by identity) however many modules list it
+ * (tied weights, e.g. lmHead sharing the target embedding). Order : first occurrence, modules in the given order.
+ * Built from the modules' parameters() at construction : tie weights before registering.
+ */
+public final class ParameterRegistry {
+
+    private final List<Parameter> unique = new ArrayList<>();
+
+    public ParameterRegistry(Module... modules) {
+        Set<Parameter> seen = identitySet();
+        for(Module m : modules) for(Parameter p : m.parameters()) if(seen.add(p)) unique.add(p);
+    }
+
+    public List<Parameter> parameters() {
+        return Collections.unmodifiableList(unique);
+    }
+
+    // true if a and b list at least one common Parameter
+    public static boolean shares(Module a, Module b) {
+        Set<Parameter> ps = identitySet();
+        ps.addAll(b.parameters());
+        for(Parameter p : a.parameters()) if(ps.contains(p)) return true;
+
+        return false;
+    }
+
+    // m's parameters that none of others lists (e.g. those final once m's backward is done)
+    public static List<Parameter> excluding(Module m, Module... others) {
+        Set<Parameter> skip = identitySet();
+        for(Module o : others) skip.addAll(o.parameters());
+
+        List<Parameter> out = new ArrayList<>();
+        for(Parameter p : m.parameters()) if(!skip.contains(p)) out.add(p);
+
+        return out;
+    }
+
+    // View of opt that steps each Parameter at most once : for one update() over modules that share parameters
+    public static Optimizer stepOnce(Optimizer opt) {
+        Set<Parameter> stepped = identitySet();
+        return new Optimizer() {
+            @Override
+            public void step(Parameter p) {
+                if(stepped.add(p)) opt.step(p);
+            }
+
+            @Override
+            public void endStep() {
+                opt.endStep();
+            }
+        };
+    }
+
+    private static Set<Parameter> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
@@ -0,0 +1,227 @@
+package nn.distributed;
+
+import nn.core.GradientListener;
+import nn.core.Parameter;
+import org.nd4j.linalg.factory.Nd4j;
+import tensor.Tensor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Bucketed gradient all-reduce overlapped with backward.
+ *
+ * Parameters are grouped, in backward order, into buckets of about bucketSize floats. As backward reports
+ * parameters (GradientListener), a bucket whose parameters are all final is flattened and handed to the
+ * communication thread, which ring-all-reduces it while backward keeps running on the next blocks.
+ * finishStep() waits for the remaining buckets and writes the summed gradients back : each rank scales its
+ * backward by its share of the batch (e.g. its tokens / the batch's tokens), so the sum is the batch gradient.
+ *
+ * Buckets are all-reduced strictly in bucket order, on every rank (the ring protocol needs all ranks to
+ * reduce the same buffer at the same time). Backward reports parameters in reverse parameters() order, so a
+ * bucket normally becomes ready right after the previous one; a tied weight is bucketed where it becomes final.
+ */
+public final class GradientBuckets implements GradientListener, AutoCloseable {
+
+    public static final int DEFAULT_BUCKET_SIZE = 1 << 18;      // 256K floats = 1 MB
+
+    private final RingAllReduce ring;
+    private final List<Parameter[]> buckets = new ArrayList<>();
+    private final Map<Parameter, Integer> bucketOf = new IdentityHashMap<>();
+    private final Map<Parameter, Integer> reportsPerStep = new IdentityHashMap<>();
+
+    // Per step
+    private final Map<Parameter, Integer> remaining = new IdentityHashMap<>();
+    private final int[] pendingInBucket;
+    private final List<Future<float[]>> inFlight = new ArrayList<>();
+    private boolean[] ready;
+    private int nextLaunch;
+
+    private final ExecutorService comm;
+
+    // Stats (last step)
+    private long commNanos, waitNanos;
+
+    // params : parameters() of the model in forward order (tied weights may repeat)
+    public GradientBuckets(List<Parameter> params, RingAllReduce ring, int bucketSize) {
+        this.ring = ring;
+
+        Map<Parameter, Integer> firstIndex = new IdentityHashMap<>();
+        for(int i=0;i<params.size();i++) {
+            reportsPerStep.merge(params.get(i), 1, Integer::sum);
+            firstIndex.putIfAbsent(params.get(i), i);
+        }
+
+        // Backward order : reverse of parameters(), each Parameter at its last report (= first occurrence)
+        List<Parameter> current = new ArrayList<>();
+        long currentSize = 0;
+        for(int i=params.size()-1;i>=0;i--) {
+            Parameter p = params.get(i);
+            if(firstIndex.get(p) != i) continue;
+
+            bucketOf.put(p, buckets.size());
+            current.add(p);
+            currentSize += p.getData().size();
+
+            if(currentSize >= bucketSize) {
+                buckets.add(current.toArray(new Parameter[0]));
+                current = new ArrayList<>();
+                currentSize = 0;
+            }
+        }
+        if(!current.isEmpty()) buckets.add(current.toArray(new Parameter[0]));
+
+        this.pendingInBucket = new int[buckets.size()];
+        this.ready = new boolean[buckets.size()];
+
+        this.comm = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "allreduce-" + ring.rank());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public GradientBuckets(List<Parameter> params, RingAllReduce ring) {
+        this(params, ring, DEFAULT_BUCKET_SIZE);
+    }
+
+    public void beginStep() {
+        remaining.clear();
+        remaining.putAll(reportsPerStep);
+        for(int b=0;b<buckets.size();b++) pendingInBucket[b] = buckets.get(b).length;
+        ready = new boolean[buckets.size()];
+        nextLaunch = 0;
+        inFlight.clear();
+        commNanos = 0;
+    }
+
+    @Override
+    public void onGradientsReady(List<Parameter> params) {
+        for(Parameter p : params) {
+            Integer left = remaining.get(p);
+            if(left == null || left == 0) continue;
+
+            remaining.put(p, left - 1);
+            if(left - 1 == 0) {
+                int b = bucketOf.get(p);
+                if(--pendingInBucket[b] == 0) {
+                    ready[b] = true;
+                    while(nextLaunch < buckets.size() && ready[nextLaunch]) launch(nextLaunch++);
+                }
+            }
+        }
+    }
+
+    // Waits for every bucket, then grad = sum over ranks
+    public void finishStep() {
+        // Buckets not (fully) reported, e.g. a rank with an empty shard : launched now
+        while(nextLaunch < buckets.size()) launch(nextLaunch++);
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<inFlight.size();i++) {
+            float[] flat = get(inFlight.get(i));
+            int off = 0;
+            for(Parameter p : buckets.get(i)) {
+                int n = (int) p.getData().size();
+                float[] g = new float[n];
+                System.arraycopy(flat, off, g, 0, n);
+
+                long[] shape = p.getData().getNDArray().shape();
+                p.setGrad(new Tensor(Nd4j.createFromArray(g).reshape('c', shape)));
+                off += n;
+            }
+        }
+        waitNanos = System.nanoTime() - t0;
+
+        // Reports outside beginStep() / finishStep() (e.g. earlier accumulation micro-batches) are ignored
+        remaining.clear();
+    }
+
+    // Copies rank 0's weights to every rank (sum of rank 0's data and zeros elsewhere)
+    public void broadcastWeights() {
+        for(Parameter[] bucket : buckets) {
+            float[] flat = flatten(bucket, true, ring.rank() != 0);
+            try {
+                ring.allReduce(flat);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            int off = 0;
+            for(Parameter p : bucket) {
+                int n = (int) p.getData().size();
+                float[] w = new float[n];
+                System.arraycopy(flat, off, w, 0, n);
+
+                // In place : views of the weights (FusedAdam's flat buffer) stay valid
+                long[] shape = p.getData().getNDArray().shape();
+                p.getData().getNDArray().assign(Nd4j.createFromArray(w).reshape('c', shape));
+                off += n;
+            }
+        }
+    }
+
+    private void launch(int b) {
+        float[] flat = flatten(buckets.get(b), false, false);
+
+        inFlight.add(comm.submit(() -> {
+            long t0 = System.nanoTime();
+            ring.allReduce(flat);
+            commNanos += System.nanoTime() - t0;
+            return flat;
+        }));
+    }
+
+    // Bucket -> one float[] (missing grads / zeroed : zeros)
+    private static float[] flatten(Parameter[] bucket, boolean weights, boolean zeros) {
+        long total = 0;
+        for(Parameter p : bucket) total += p.getData().size();
+
+        float[] flat = new float[(int) total];
+        if(zeros) return flat;
+
+        int off = 0;
+        for(Parameter p : bucket) {
+            int n = (int) p.getData().size();
+            Tensor t = weights ? p.getData() : p.getGrad();
+            if(t != null) {
+                float[] v = t.getNDArray().dup('c').reshape(n).toFloatVector();
+                System.arraycopy(v, 0, flat, off, n);
+            }
+            off += n;
+        }
+        return flat;
+    }
+
+    private static float[] get(Future<float[]> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during all-reduce", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("All-reduce failed", e.getCause());
+        }
+    }
+
+    public int numBuckets() { return buckets.size(); }
+    public int rank() { return ring.rank(); }
+    public int worldSize() { return ring.worldSize(); }
+
+    // Last step : time spent in all-reduce, and the part of it that backward did not hide
+    public double commMillis() { return commNanos / 1e6; }
+    public double exposedMillis() { return waitNanos / 1e6; }
+
+    @Override
+    public void close() {
+        comm.shutdownNow();
+    }
+}
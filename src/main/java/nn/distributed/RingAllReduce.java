@@ -0,0 +1,188 @@
+package nn.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Sum all-reduce of float[] across `world` processes connected in a TCP ring (rank r -> rank r+1).
+ *
+ * Ring algorithm : the buffer is cut into `world` chunks.
+ *   reduce-scatter (world-1 steps) : send chunk (r - s), receive chunk (r - s - 1) and add -> r owns reduced chunk r+1
+ *   all-gather     (world-1 steps) : send chunk (r + 1 - s), receive chunk (r - s) and copy
+ * Every rank sends / receives 2 * (world-1) / world of the buffer, independent of world size.
+ *
+ * Rank r listens on basePort + r. Sends run on their own thread so both directions of a step overlap.
+ */
+public final class RingAllReduce implements AutoCloseable {
+
+    private static final int CONNECT_RETRY_MS = 100;
+
+    private final int rank, world;
+    private final Socket toNext, fromPrev;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final ExecutorService sender;
+
+    private ByteBuffer sendBuf = newBuffer(0), recvBuf = newBuffer(0);
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private RingAllReduce(int rank, int world, Socket toNext, Socket fromPrev) throws IOException {
+        this.rank = rank;
+        this.world = world;
+        this.toNext = toNext;
+        this.fromPrev = fromPrev;
+
+        if(world > 1) {
+            this.out = new DataOutputStream(new BufferedOutputStream(toNext.getOutputStream(), 1 << 16));
+            this.in = new DataInputStream(new BufferedInputStream(fromPrev.getInputStream(), 1 << 16));
+            this.sender = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "ring-send-" + rank);
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.out = null; this.in = null; this.sender = null;
+        }
+    }
+
+    // Blocks until both ring neighbours are connected (or timeoutMs elapses)
+    public static RingAllReduce connect(int rank, int world, String host, int basePort, long timeoutMs) throws IOException {
+        if(world < 1 || rank < 0 || rank >= world)
+            throw new IllegalArgumentException("rank " + rank + " out of range for world " + world);
+        if(world == 1) return new RingAllReduce(0, 1, null, null);
+
+        InetAddress addr = InetAddress.getByName(host);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        try(ServerSocket server = new ServerSocket(basePort + rank, 1, addr)) {
+            server.setSoTimeout((int) Math.max(1, timeoutMs));
+
+            // Connect to the next rank (it may not be listening yet)
+            Socket next = null;
+            while(next == null) {
+                try {
+                    Socket s = new Socket();
+                    s.setTcpNoDelay(true);
+                    s.connect(new InetSocketAddress(addr, basePort + (rank + 1) % world), CONNECT_RETRY_MS);
+                    next = s;
+                } catch (IOException e) {
+                    if(System.currentTimeMillis() > deadline)
+                        throw new IOException("rank " + rank + " : could not reach rank " + (rank + 1) % world, e);
+                    sleep(CONNECT_RETRY_MS);
+                }
+            }
+
+            Socket prev = server.accept();
+            prev.setTcpNoDelay(true);
+
+            return new RingAllReduce(rank, world, next, prev);
+        }
+    }
+
+    // In place : data = sum over ranks of data
+    public void allReduce(float[] data) throws IOException {
+        if(world == 1) return;
+
+        int L = data.length;
+        int[] off = new int[world + 1];
+        for(int c=0;c<=world;c++) off[c] = (int) ((long) L * c / world);
+
+        // Reduce-scatter
+        for(int s=0;s<world-1;s++) {
+            int sendC = mod(rank - s), recvC = mod(rank - s - 1);
+            Future<?> f = sendAsync(data, off[sendC], off[sendC + 1]);
+            receive(data, off[recvC], off[recvC + 1], true);
+            await(f);
+        }
+
+        // All-gather
+        for(int s=0;s<world-1;s++) {
+            int sendC = mod(rank + 1 - s), recvC = mod(rank - s);
+            Future<?> f = sendAsync(data, off[sendC], off[sendC + 1]);
+            receive(data, off[recvC], off[recvC + 1], false);
+            await(f);
+        }
+    }
+
+    private Future<?> sendAsync(float[] data, int from, int to) {
+        return sender.submit(() -> {
+            int n = to - from;
+            if(sendBuf.capacity() < 4 * n) sendBuf = newBuffer(4 * n);
+            sendBuf.clear();
+            sendBuf.asFloatBuffer().put(data, from, n);
+
+            out.writeInt(n);
+            out.write(sendBuf.array(), 0, 4 * n);
+            out.flush();
+            bytesSent.addAndGet(4L * n + 4);
+
+            return null;
+        });
+    }
+
+    private void receive(float[] data, int from, int to, boolean add) throws IOException {
+        int n = in.readInt();
+        if(n != to - from) throw new IOException("Ring protocol error : expected " + (to - from) + " floats, got " + n);
+
+        if(recvBuf.capacity() < 4 * n) recvBuf = newBuffer(4 * n);
+        in.readFully(recvBuf.array(), 0, 4 * n);
+        recvBuf.clear();
+
+        FloatBuffer fb = recvBuf.asFloatBuffer();
+        if(add) for(int i=0;i<n;i++) data[from + i] += fb.get(i);
+        else fb.get(data, from, n);
+    }
+
+    private static void await(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Send failed", e.getCause());
+        }
+    }
+
+    private static ByteBuffer newBuffer(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int mod(int c) {
+        return ((c % world) + world) % world;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int rank() { return rank; }
+    public int worldSize() { return world; }
+    public long bytesSent() { return bytesSent.get(); }
+
+    @Override
+    public void close() throws IOException {
+        if(sender != null) sender.shutdownNow();
+        if(toNext != null) toNext.close();
+        if(fromPrev != null) fromPrev.close();
+    }
+}
@@ -0,0 +1,65 @@
+package nn.distributed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/*
+ * Worker threads for tensor-parallel modules : map(n, f) runs f(0) .. f(n-1) at once, shard 0 on the caller.
+ * One pool can serve every sharded module of a model; the caller's thread is never idle while it waits.
+ */
+public final class ShardPool implements AutoCloseable {
+
+    private final ExecutorService workers;
+    private final int threads;
+
+    // threads : concurrent shards (the caller counts as one)
+    public ShardPool(int threads) {
+        if(threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+
+        this.threads = threads;
+        this.workers = (threads > 1) ? Executors.newFixedThreadPool(threads - 1, r -> {
+            Thread t = new Thread(r, "shard-worker");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    public <T> List<T> map(int n, IntFunction<T> shard) {
+        List<Future<T>> futures = new ArrayList<>();
+        for(int i=1;i<n;i++) {
+            final int s = i;
+            if(workers != null) futures.add(workers.submit(() -> shard.apply(s)));
+        }
+
+        List<T> out = new ArrayList<>(n);
+        out.add(shard.apply(0));
+
+        try {
+            if(workers == null) for(int i=1;i<n;i++) out.add(shard.apply(i));
+            else for(Future<T> f : futures) out.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("Shard failed", cause);
+        }
+
+        return out;
+    }
+
+    public int threads() {
+        return threads;
+    }
+
+    @Override
+    public void close() {
+        if(workers != null) workers.shutdownNow();
+    }
+}
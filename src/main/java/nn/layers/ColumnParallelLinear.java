@@ -0,0 +1,127 @@
+package nn.layers;
+
+import nn.core.ActivationContext;
+import nn.core.Module;
+import nn.core.Parameter;
+import nn.distributed.ShardPool;
+import nn.initializer.Initializer;
+import nn.optimizer.Optimizer;
+import nn.transformer.mask.MaskUtils;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Linear layer with its output features split into numShards column blocks, one per thread :
+ *   W = [W_0 | W_1 | ... ]    Y = [X W_0 | X W_1 | ... ]    dX = sum_i dY_i W_i^T
+ * Every shard reads the whole input and owns its weight slice; outputs are concatenated, input gradients
+ * summed. Dropout is applied to the concatenated output, on the calling thread. Same result as Linear with the
+ * same W / b.
+ */
+public class ColumnParallelLinear implements Module {
+
+    private final Linear[] shards;
+    private final int[] offsets;            // Column range of shard i : [offsets[i], offsets[i + 1])
+    private final ShardPool pool;
+    private final boolean isTrainable;
+    private final double dropoutProb;
+
+    // Shard activations live in child contexts, one per shard (per ActivationContext)
+    private static final class Cache {
+        ActivationContext[] shardCtx;
+        Tensor cDrop;
+    }
+
+    public ColumnParallelLinear(int inFeatures, int outFeatures, Initializer wInit, Initializer bInit,
+                                boolean isTrainable, double dropoutProb, int numShards, ShardPool pool) {
+        if(numShards < 1 || numShards > outFeatures)
+            throw new IllegalArgumentException("numShards must be in [1, " + outFeatures + "] : " + numShards);
+
+        this.pool = pool;
+        this.isTrainable = isTrainable;
+        this.dropoutProb = dropoutProb;
+        this.shards = new Linear[numShards];
+        this.offsets = new int[numShards + 1];
+
+        // Initialized as one [in, out] matrix, then sliced
+        Tensor W = wInit.init(inFeatures, outFeatures);
+        Tensor b = (bInit != null) ? bInit.init(1, outFeatures) : null;
+
+        for(int i=0;i<=numShards;i++) offsets[i] = (int) ((long) outFeatures * i / numShards);
+        for(int i=0;i<numShards;i++) {
+            shards[i] = new Linear(W.slice(-1, offsets[i], offsets[i + 1]).dup(),
+                    (b != null) ? b.slice(-1, offsets[i], offsets[i + 1]).dup() : null,
+                    isTrainable, 0.0);
+        }
+    }
+
+    @Override
+    public Tensor forward(Tensor X, boolean training) {
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.shardCtx = new ActivationContext[shards.length];
+        for(int i=0;i<shards.length;i++) c.shardCtx[i] = ctx.fork();
+
+        // Shards have no dropout of their own (applied to the output, see RowParallelLinear)
+        List<Tensor> Ys = pool.map(shards.length, i -> c.shardCtx[i].call(() -> shards[i].forward(X, false)));
+        Tensor Y = (shards.length == 1) ? Ys.get(0) : Tensor.concat(-1, Ys.toArray(new Tensor[0]));
+
+        if(training) {
+            c.cDrop = MaskUtils.dropoutMaskLike(Y, dropoutProb);
+            Y.muli(c.cDrop);
+        }
+        else c.cDrop = null;
+
+        return Y;
+    }
+
+    @Override
+    public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null || c.shardCtx == null)
+            throw new IllegalStateException("ColumnParallelLinear.calcGradients() before forward()");
+
+        Tensor dYd = (c.cDrop != null) ? dY.mul(c.cDrop) : dY;
+        List<Tensor> dXs = pool.map(shards.length, i -> {
+            Tensor dYi = dYd.slice(-1, offsets[i], offsets[i + 1]);
+            return c.shardCtx[i].call(() -> shards[i].calcGradients(dYi, accumulate, scale));
+        });
+
+        return sum(dXs);
+    }
+
+    // Reduction of the shards' partial results
+    static Tensor sum(List<Tensor> parts) {
+        if(parts.size() == 1) return parts.get(0);
+
+        // First add allocates the result, the rest accumulate into it
+        Tensor acc = parts.get(0).add(parts.get(1));
+        for(int i=2;i<parts.size();i++) acc.addi(parts.get(i));
+
+        return acc;
+    }
+
+    @Override
+    public void update(Optimizer optimizer) {
+        if(isTrainable) for(Linear shard : shards) shard.update(optimizer);
+    }
+
+    @Override
+    public List<Parameter> parameters() {
+        List<Parameter> ps = new ArrayList<>();
+        for(Linear shard : shards) ps.addAll(shard.parameters());
+
+        return ps;
+    }
+
+    @Override
+    public void zeroGrad() {
+        for(Linear shard : shards) shard.zeroGrad();
+        ActivationContext.current().evict(this);
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+}
@@ -1,30 +1,35 @@
 package nn.layers;
 
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.initializer.Initializer;
 import nn.optimizer.Optimizer;
 import nn.transformer.mask.MaskUtils;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.shade.guava.primitives.Ints;
 import tensor.Tensor;
 
 import java.util.List;
-import java.util.stream.IntStream;
 
 public class Linear implements Module {
 
     private final int inFeatures, outFeatures;
     private Parameter W;
     private Parameter b;
-    private Tensor X;
-    private Tensor cDrop;
 
     private final boolean isTrainable;
     private final double dropoutProb;
 
     private boolean useBias;
 
+    /* Cached (per ActivationContext) */
+    private static final class Cache {
+        Tensor X;
+        Tensor cDrop;
+    }
+
     public Linear(int inFeatures, int outFeatures, Initializer wInit, Initializer bInit, boolean isTrainable, double dropoutProb) {
         this.inFeatures = inFeatures;
         this.outFeatures = outFeatures;
@@ -38,6 +43,20 @@ public class Linear implements Module {
         } else this.useBias = false;
     }
 
+    // Given weights W [in, out] and b [1, out] (null : no bias), e.g. one shard of a tensor-parallel layer
+    Linear(Tensor W, Tensor b, boolean isTrainable, double dropoutProb) {
+        this.inFeatures = W.size(0);
+        this.outFeatures = W.size(1);
+        this.isTrainable = isTrainable;
+        this.dropoutProb = dropoutProb;
+        this.W = new Parameter("linear.W", W, isTrainable);
+
+        if(b != null) {
+            this.b = new Parameter("linear.b", b, isTrainable);
+            this.useBias = true;
+        } else this.useBias = false;
+    }
+
     public Linear(int inFeatures, int outFeatures, Initializer wInit, Initializer bInit, double dropoutProb) {
         this(inFeatures, outFeatures, wInit, bInit, true, dropoutProb);
     }
@@ -56,52 +75,64 @@ public class Linear implements Module {
 
     @Override
     public Tensor forward(Tensor X, boolean training) {
-        this.X = X;
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.X = X;
 
         // Y = XW
         Tensor Y = X.matmul(W.getData());
 
         // if b is not null : Y = XW + b
         if(useBias) {
+            Tensor XW = Y;
             Y = Y.add(b.getData());
+            ctx.discard(XW);
         }
 
         if(training) {
-            cDrop = MaskUtils.dropoutMaskLike(Y, dropoutProb);
-            Y = Y.mul(cDrop);
+            c.cDrop = MaskUtils.dropoutMaskLike(Y, dropoutProb);
+            Y.muli(c.cDrop);
+        }
+        else c.cDrop = null;
+
+        return Y;
+    }
+
+    // Inference over a subset of output features : Y = X x W[:, cols] (+ b[cols]) -> [..., cols.length]
+    // (e.g. a vocabulary shortlist on a tied [d, V] embedding weight)
+    public Tensor forwardColumns(Tensor X, int[] cols) {
+        // [cols.length, in] -> [in, cols.length]
+        Tensor Wsub = new Tensor(Nd4j.pullRows(W.getData().getNDArray(), 0, cols).transpose());
+        Tensor Y = X.matmul(Wsub);
+
+        if(useBias) {
+            Tensor bsub = new Tensor(Nd4j.pullRows(b.getData().getNDArray(), 0, cols).reshape(1, cols.length));
+            Y = Y.add(bsub);
         }
-        else cDrop = null;
 
         return Y;
     }
 
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null || c.X == null) throw new IllegalStateException("Linear.calcGradients() before forward()");
+
         if(scale != 1.0) dY = dY.mul(scale);
-        if(cDrop != null) dY = dY.mul(cDrop);
+        if(c.cDrop != null) dY = dY.mul(c.cDrop);
+
+        // dL/dW = X^T x dY, batch dimensions folded into rows : [N, in]^T x [N, out]
+        // written straight into W's gradient buffer (GEMM, beta = 1 : adds onto it when accumulating)
+        INDArray X2 = c.X.getNDArray().reshape('c', c.X.size() / inFeatures, inFeatures);
+        INDArray dY2 = dY.getNDArray().reshape('c', dY.size() / outFeatures, outFeatures);
+        Nd4j.gemm(X2, dY2, W.gradBuffer(accumulate).getNDArray(), true, false, 1.0, 1.0);
 
-        // dL/dW = X^T x dY
-        Tensor dW = X.transpose(-1, -2).matmul(dY);
-        // Considering batch dimension
-        int[] axesDW = IntStream.range(0, dW.ndim() - 2).toArray();
-        dW = (axesDW.length > 0) ? dW.sum(false, axesDW) : dW;
+        // dL/db = sum(dY) over every row : [1, out]
+        if(useBias) b.gradBuffer(accumulate).getNDArray().addi(dY2.sum(true, 0));
 
-        // dL/db = sum(dY), Along all axis w/o last axis : [1, 1, d_model]
-        int[] axesDB = IntStream.range(0, dY.ndim() -1).toArray();
-        Tensor db = dY.sum(true, axesDB);
         // dL/dX = dY x W^T
         Tensor dX = dY.matmul(W.getData().transpose(-1, -2));
 
-        if(accumulate) {
-            // backwardAccumulate()
-            W.addGrad(dW);
-            if(useBias) b.addGrad(db);
-        } else {
-            // backward()
-            W.setGrad(dW);
-            if(useBias) b.setGrad(db);
-        }
-
         return dX;
     }
 
@@ -124,7 +155,7 @@ public class Linear implements Module {
     public void zeroGrad() {
         W.zeroGrad();
         if(useBias) b.zeroGrad();
-        X = null;
+        ActivationContext.current().evict(this);
     }
 
     public void setParameter(Parameter parameter) {
@@ -0,0 +1,115 @@
+package nn.layers;
+
+import nn.core.ActivationContext;
+import nn.core.Module;
+import nn.core.Parameter;
+import nn.distributed.ShardPool;
+import nn.initializer.Initializer;
+import nn.optimizer.Optimizer;
+import nn.transformer.mask.MaskUtils;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Linear layer with its input features split into numShards row blocks, one per thread :
+ *   W = [W_0 ; W_1 ; ... ]    Y = sum_i X_i W_i + b    dX = [dY W_0^T | dY W_1^T | ... ]
+ * Shard i reads only its input columns X_i; partial outputs are summed (bias added once, by shard 0),
+ * then dropout is applied to the sum. Same result as Linear with the same W / b.
+ */
+public class RowParallelLinear implements Module {
+
+    private final Linear[] shards;
+    private final int[] offsets;            // Input range of shard i : [offsets[i], offsets[i + 1])
+    private final ShardPool pool;
+    private final boolean isTrainable;
+    private final double dropoutProb;
+
+    // Shard activations live in child contexts, one per shard (per ActivationContext)
+    private static final class Cache {
+        ActivationContext[] shardCtx;
+        Tensor cDrop;
+    }
+
+    public RowParallelLinear(int inFeatures, int outFeatures, Initializer wInit, Initializer bInit,
+                             boolean isTrainable, double dropoutProb, int numShards, ShardPool pool) {
+        if(numShards < 1 || numShards > inFeatures)
+            throw new IllegalArgumentException("numShards must be in [1, " + inFeatures + "] : " + numShards);
+
+        this.pool = pool;
+        this.isTrainable = isTrainable;
+        this.dropoutProb = dropoutProb;
+        this.shards = new Linear[numShards];
+        this.offsets = new int[numShards + 1];
+
+        // Initialized as one [in, out] matrix, then sliced
+        Tensor W = wInit.init(inFeatures, outFeatures);
+        Tensor b = (bInit != null) ? bInit.init(1, outFeatures) : null;
+
+        for(int i=0;i<=numShards;i++) offsets[i] = (int) ((long) inFeatures * i / numShards);
+        for(int i=0;i<numShards;i++) {
+            shards[i] = new Linear(W.slice(0, offsets[i], offsets[i + 1]).dup(), (i == 0) ? b : null,
+                    isTrainable, 0.0);
+        }
+    }
+
+    @Override
+    public Tensor forward(Tensor X, boolean training) {
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.shardCtx = new ActivationContext[shards.length];
+        for(int i=0;i<shards.length;i++) c.shardCtx[i] = ctx.fork();
+
+        List<Tensor> partial = pool.map(shards.length, i -> {
+            Tensor Xi = (shards.length == 1) ? X : X.slice(-1, offsets[i], offsets[i + 1]);
+            // Shards have no dropout of their own (applied to the sum)
+            return c.shardCtx[i].call(() -> shards[i].forward(Xi, false));
+        });
+        Tensor Y = ColumnParallelLinear.sum(partial);
+
+        if(training) {
+            c.cDrop = MaskUtils.dropoutMaskLike(Y, dropoutProb);
+            Y.muli(c.cDrop);
+        }
+        else c.cDrop = null;
+
+        return Y;
+    }
+
+    @Override
+    public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null || c.shardCtx == null)
+            throw new IllegalStateException("RowParallelLinear.calcGradients() before forward()");
+
+        Tensor dYd = (c.cDrop != null) ? dY.mul(c.cDrop) : dY;
+        List<Tensor> dXs = pool.map(shards.length,
+                i -> c.shardCtx[i].call(() -> shards[i].calcGradients(dYd, accumulate, scale)));
+
+        return (shards.length == 1) ? dXs.get(0) : Tensor.concat(-1, dXs.toArray(new Tensor[0]));
+    }
+
+    @Override
+    public void update(Optimizer optimizer) {
+        if(isTrainable) for(Linear shard : shards) shard.update(optimizer);
+    }
+
+    @Override
+    public List<Parameter> parameters() {
+        List<Parameter> ps = new ArrayList<>();
+        for(Linear shard : shards) ps.addAll(shard.parameters());
+
+        return ps;
+    }
+
+    @Override
+    public void zeroGrad() {
+        for(Linear shard : shards) shard.zeroGrad();
+        ActivationContext.current().evict(this);
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+}
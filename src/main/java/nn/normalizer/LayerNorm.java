@@ -1,5 +1,6 @@
 package nn.normalizer;
 
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.optimizer.Optimizer;
@@ -17,11 +18,13 @@ public class LayerNorm implements Module {
     private Parameter gamma;
     private Parameter beta;
 
-    /* Cached */
-    private Tensor cX;
-    private Tensor cMean;
-    private Tensor cVar;
-    private Tensor cNorm;
+    /* Cached (per ActivationContext) */
+    private static final class Cache {
+        Tensor cX;
+        Tensor cMean;
+        Tensor cVar;
+        Tensor cNorm;
+    }
 
     public LayerNorm(int numFeatures, double eps, boolean isTrainable) {
         this.numFeatures = numFeatures;
@@ -39,25 +42,32 @@ public class LayerNorm implements Module {
     public Tensor forward(Tensor X, boolean training) {
         assert (X.shape()[X.ndim() - 1] == numFeatures) : "Number of features != Normalized size";
 
-        this.cX = X;
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.cX = X;
 
         // Mean
         Tensor mean = X.mean(-1, true);
-        this.cMean = mean;
+        c.cMean = mean;
 
         // Centralize : x - mean
         Tensor centered = X.sub(mean);
 
-        // Variance
-        Tensor var = X.var(-1, true);
-        this.cVar = var;
+        // Variance (from centered, no second pass over X)
+        Tensor sq = centered.mul(centered);
+        Tensor var = sq.mean(-1, true);
+        c.cVar = var;
 
-        // Normalize : (x - mean) / (std + eps)
-        Tensor normalized = centered.div(var.add(eps).sqrt());
-        this.cNorm = normalized;
+        // Normalize : (x - mean) / (std + eps), in place : centered becomes x_norm
+        Tensor std = var.add(eps).sqrti();
+        Tensor normalized = centered.divi(std);
+        c.cNorm = normalized;
 
         // Scale & Shift : gamma * x_norm + beta
-        return normalized.mul(gamma.getData()).add(beta.getData());
+        Tensor out = normalized.mul(gamma.getData()).addi(beta.getData());
+
+        ctx.discard(mean, sq, var, std, normalized);
+        return out;
     }
 
     /*
@@ -74,6 +84,10 @@ public class LayerNorm implements Module {
 
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null) throw new IllegalStateException("LayerNorm.calcGradients() before forward()");
+        Tensor cX = c.cX, cMean = c.cMean, cVar = c.cVar, cNorm = c.cNorm;
+
         assert(cX.shape()[cX.ndim() - 1] == numFeatures) : "Number of features != Normalized size";
 
         if(scale != 1.0) dY = dY.mul(scale);
@@ -91,20 +105,21 @@ public class LayerNorm implements Module {
         Tensor dNorm = dY.mul(gamma.getData());
 
         Tensor centered = cX.sub(cMean);
-        Tensor std = cVar.add(eps).sqrt();
+        Tensor std = cVar.add(eps).sqrti();
 
         // dStd
-        Tensor dStd = dNorm.mul(centered).div(std).sum(-1, true).mul(1.0);
+        Tensor dStd = dNorm.mul(centered).divi(std).sum(-1, true);
 
         // dMean
         Tensor dMean = dNorm.sum(-1, true)
-                .div(std.mul(-1.0))
-                .sub(dStd.mul(centered.sum(-1, true)).div(numFeatures).div(std));
+                .divi(std.neg())
+                .subi(dStd.mul(centered.sum(-1, true)).divi(numFeatures).divi(std));
 
-        // dX
-        Tensor dX = dNorm.div(std)
-                .add(dStd.mul(centered).mul(2.0).div(numFeatures).div(std))
-                .add(dMean.div(numFeatures));
+        // dX = dNorm / std + dStd * centered * 2 / (D * std) + dMean / D
+        // dNorm and centered are temporaries of this call : reused in place
+        Tensor dX = dNorm.divi(std)
+                .addi(centered.muli(dStd).muli(2.0 / numFeatures).divi(std))
+                .addi(dMean.divi(numFeatures));
 
         if(accumulate) {
             gamma.addGrad(dGamma); beta.addGrad(dBeta);
@@ -132,5 +147,6 @@ public class LayerNorm implements Module {
     public void zeroGrad() {
         if(gamma.getGrad() != null) gamma.zeroGrad();
         if(beta.getGrad() != null) beta.zeroGrad();
+        ActivationContext.current().evict(this);
     }
 }
@@ -1,5 +1,6 @@
 package nn.normalizer;
 
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.optimizer.Optimizer;
@@ -19,10 +20,12 @@ public class RMSNorm implements Module {
     // Parameter
     private Parameter gamma;
 
-    // Cached
-    private Tensor X;
-    private Tensor invR;
-    private Tensor xHat;
+    // Cached (per ActivationContext)
+    private static final class Cache {
+        Tensor X;
+        Tensor invR;
+        Tensor xHat;
+    }
 
     public RMSNorm(int numFeatures, double eps, boolean isTrainable) {
         this.numFeatures = numFeatures;
@@ -45,7 +48,9 @@ public class RMSNorm implements Module {
     public Tensor forward(Tensor X, boolean training) {
         assert(X.shape()[X.ndim() - 1] == numFeatures) : "Number of features != Normalized size";
 
-        this.X = X;
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.X = X;
 
         // x^2 : [*, D]
         Tensor sq = X.pow(2.0);
@@ -53,25 +58,27 @@ public class RMSNorm implements Module {
         // Mean squared : [*, 1]
         Tensor meanSq = sq.mean(-1, true);
 
-        // RMS : sqrt(meanSq + eps) : [*, 1]
-        Tensor rms = meanSq.add(eps).sqrt();
-
-        // Inverted RMS : [*, 1]
-        Tensor invRms = rms.reciprocal();
-        this.invR = invRms;
+        // Inverted RMS : 1 / sqrt(meanSq + eps) : [*, 1] (in place on meanSq)
+        Tensor invRms = meanSq.addi(eps).sqrti().reciprocali();
+        c.invR = invRms;
 
         // Normalization : x / RMS : [*, D]
         Tensor xHat = X.mul(invRms);
-        this.xHat = xHat;
+        c.xHat = xHat;
 
         // [D] broadcast : gamma * xHat -> [*, D]
         Tensor out = xHat.mul(gamma.getData());
 
+        ctx.discard(sq, invRms, xHat);
         return out;
     }
 
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null) throw new IllegalStateException("RMSNorm.calcGradients() before forward()");
+        Tensor X = c.X, xHat = c.xHat;
+
         assert(X.shape()[X.ndim() - 1] == numFeatures) : "Number of features != Normalized size";
 
         if(scale != 1.0) dY = dY.mul(scale);
@@ -86,19 +93,16 @@ public class RMSNorm implements Module {
         Tensor dNorm = dY.mul(gamma.getData());
 
         // dRMS
-        Tensor invR = this.invR;
+        Tensor invR = c.invR;
         Tensor invR3 = invR.pow(3.0);
 
-        Tensor term1 = dNorm.mul(invR);
-
         // scalar per row
         Tensor dot = dNorm.mul(X).sum(-1, true);
-        Tensor scalarPerRow = dot.div(numFeatures);
-
-        Tensor term2 = X.mul(scalarPerRow).mul(invR3);
+        Tensor scalarPerRow = dot.divi(numFeatures);
 
-        // dX
-        Tensor dX = term1.sub(term2);
+        // dX = dNorm * invR - X * scalarPerRow * invR^3 (dNorm is a temporary of this call : reused in place)
+        Tensor term2 = X.mul(scalarPerRow).muli(invR3);
+        Tensor dX = dNorm.muli(invR).subi(term2);
 
         if(accumulate) gamma.addGrad(dGamma);
         else gamma.setGrad(dGamma);
@@ -119,5 +123,6 @@ public class RMSNorm implements Module {
     @Override
     public void zeroGrad() {
         if(gamma.getGrad() != null) gamma.zeroGrad();
+        ActivationContext.current().evict(this);
     }
 }
@@ -1,6 +1,7 @@
 package nn.optimizer;
 
 import nn.core.Parameter;
+import tensor.StepArena;
 import tensor.Tensor;
 
 import java.util.HashMap;
@@ -45,30 +46,27 @@ public class Adam implements Optimizer {
 
             if(grad == null) return;
 
-            // Moment buffer initialization
-            Tensor m_t = m.computeIfAbsent(p, k -> Tensor.zeros(theta.shape()));
-            Tensor v_t = v.computeIfAbsent(p, k -> Tensor.zeros(theta.shape()));
+            // Moment buffer initialization (outlive the step : kept out of its arena)
+            Tensor m_t = m.computeIfAbsent(p, k -> StepArena.detached(() -> Tensor.zeros(theta.shape())));
+            Tensor v_t = v.computeIfAbsent(p, k -> StepArena.detached(() -> Tensor.zeros(theta.shape())));
 
-            // Moment update
+            // Moment update (in place)
             // m_t = m_{t-1} * beta1 + (1 - beta1) * grad
             // v_t = v_{t-1} * beta2 + (1 - beta2) * grad^2
-            m_t = m_t.mul(beta1).add(grad.mul(1.0 - beta1));
-            v_t = v_t.mul(beta2).add(grad.pow(2).mul(1.0 - beta2));
+            Tensor tmp = grad.mul(grad);        // The only temporary of the step
+            m_t.muli(beta1).addScaledi(grad, 1.0 - beta1);
+            v_t.muli(beta2).addScaledi(tmp, 1.0 - beta2);
 
             // Bias correction
             // mhat = m_t / (1 - beta1)
             // vhat = v_t / (1 - beta2)
-            Tensor mhat = m_t.div(1.0 - beta1);
-            Tensor vhat = v_t.div(1.0 - beta2);
+            // denom = sqrt(vhat) + eps -> tmp
+            v_t.div(1.0 - beta2, tmp).sqrti().addi(eps);
 
-            // Update param
+            // Update param (in place : modules sharing this weight tensor see the new values)
             // theta_t = theta_{t-1} - lr * (mhat / (sqrt(vhat) + eps))
-            Tensor denom = vhat.sqrt().add(eps);
-            p.setData(theta.sub(mhat.mul(lr).div(denom)));
-
-            // Save m, v
-            m.put(p, m_t);
-            v.put(p, v_t);
+            m_t.div(tmp, tmp).muli(lr / (1.0 - beta1));
+            theta.subi(tmp);
         }
     }
 }
@@ -0,0 +1,200 @@
+package nn.optimizer;
+
+import nn.core.Parameter;
+import nn.distributed.ShardPool;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import tensor.Tensor;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/*
+ * Adam(W) over flat buffers : the weights, gradients and both moments of every trainable parameter are packed into
+ * four contiguous FLOAT buffers. Each Parameter's data and gradient buffer become views into them : backward
+ * writes gradients in place, step(p) only records p (or copies a gradient set with setGrad()), and endStep()
+ * then updates the whole buffer in one pass (no temporaries), split into chunks over threads :
+ *   m = b1 m + (1 - b1) g        v = b2 v + (1 - b2) g^2
+ *   theta -= lr * (wd * theta + (m / (1 - b1^t)) / (sqrt(v / (1 - b2^t)) + eps))
+ * weightDecay is decoupled (AdamW) : 0 gives Adam. t counts endStep() calls. It only applies to the parameters
+ * the decay predicate selects, by default weight matrices (more than one row) : biases [1, n] and norm gains /
+ * shifts [n] are not pulled toward 0.
+ * The bias correction is the standard 1 - beta^t, while Adam divides by a constant 1 - beta : switching between
+ * the two changes the updates (FusedAdam's are smaller on early steps), not only their speed.
+ *
+ * Create it once the weights are final (loaded / broadcast) : replacing a packed parameter's data with setData()
+ * detaches it from the buffer. A parameter without a gradient in a step is updated with a zero gradient.
+ */
+public class FusedAdam implements Optimizer, AutoCloseable {
+
+    private static final int MIN_CHUNK = 1 << 16;     // Elements per thread, below which threads cost more than they save
+
+    private final double lr;
+    private final double beta1, beta2;
+    private final double eps;
+    private final double weightDecay;
+
+    private final Map<Parameter, Integer> slots = new IdentityHashMap<>();
+    private final List<Parameter> packed = new ArrayList<>();
+    private final long[] offsets;                     // Slot i : [offsets[i], offsets[i + 1])
+    private final boolean[] decays;                   // Weight decay applies to slot i
+    private final INDArray[] gradViews;
+    private final boolean[] staged;
+
+    private final INDArray theta, grad, m, v;         // [n]
+    private final ShardPool pool;
+    private int t = 0;
+
+    // Default decay predicate : matrices with more than one row (no biases, no norm parameters)
+    public static final Predicate<Parameter> DECAY_MATRICES = p -> {
+        int[] shape = p.getData().shape();
+        return shape.length >= 2 && shape[0] > 1;
+    };
+
+    public FusedAdam(List<Parameter> params, double lr, double beta1, double beta2, double eps, double weightDecay,
+                     int threads) {
+        this(params, lr, beta1, beta2, eps, weightDecay, DECAY_MATRICES, threads);
+    }
+
+    // decay : parameters weightDecay applies to (decided once, here)
+    public FusedAdam(List<Parameter> params, double lr, double beta1, double beta2, double eps, double weightDecay,
+                     Predicate<Parameter> decay, int threads) {
+        this.lr = lr;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.eps = eps;
+        this.weightDecay = weightDecay;
+
+        // Trainable parameters, once each (tied weights are listed twice)
+        for(Parameter p : params) {
+            if(!p.isTrainable() || slots.containsKey(p)) continue;
+            if(p.getData().getNDArray().dataType() != DataType.FLOAT)
+                throw new IllegalArgumentException("FusedAdam expects FLOAT parameters : " + p.getName());
+
+            slots.put(p, packed.size());
+            packed.add(p);
+        }
+
+        this.offsets = new long[packed.size() + 1];
+        this.decays = new boolean[packed.size()];
+        for(int i=0;i<packed.size();i++) {
+            offsets[i + 1] = offsets[i] + packed.get(i).getData().size();
+            decays[i] = decay.test(packed.get(i));
+        }
+        long n = offsets[packed.size()];
+        if(n > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many parameters for one flat buffer : " + n);
+
+        this.theta = Nd4j.create(DataType.FLOAT, Math.max(1, n));
+        this.grad  = Nd4j.create(DataType.FLOAT, Math.max(1, n));
+        this.m     = Nd4j.create(DataType.FLOAT, Math.max(1, n));
+        this.v     = Nd4j.create(DataType.FLOAT, Math.max(1, n));
+
+        // Weights move into the buffer, parameters keep views of their slot
+        this.gradViews = new INDArray[packed.size()];
+        this.staged = new boolean[packed.size()];
+        for(int i=0;i<packed.size();i++) {
+            Parameter p = packed.get(i);
+            long[] shape = p.getData().getNDArray().shape();
+
+            INDArray w = slot(theta, i).reshape('c', shape);
+            if(!w.isView()) throw new IllegalStateException("Slot of " + p.getName() + " is not a view of the buffer");
+            w.assign(p.getData().getNDArray());
+            p.setData(new Tensor(w));
+            gradViews[i] = slot(grad, i).reshape('c', shape);
+
+            // Backward writes the gradient straight into its slot (no copy in step())
+            p.bindGradBuffer(new Tensor(gradViews[i]));
+        }
+
+        this.pool = new ShardPool(Math.max(1, threads));
+    }
+
+    public FusedAdam(List<Parameter> params, double lr, double beta1, double beta2, double eps, int threads) {
+        this(params, lr, beta1, beta2, eps, 0.0, threads);
+    }
+
+    private INDArray slot(INDArray flat, int i) {
+        return flat.get(NDArrayIndex.interval(offsets[i], offsets[i + 1]));
+    }
+
+    // Stages p's gradient into the flat buffer (the update itself runs in endStep())
+    @Override
+    public void step(Parameter p) {
+        if(!p.isTrainable()) return;
+
+        Integer i = slots.get(p);
+        if(i == null) throw new IllegalStateException("Parameter is not packed in this optimizer : " + p.getName());
+
+        Tensor g = p.getGrad();
+        if(g != null && g.getNDArray() != gradViews[i]) gradViews[i].assign(g.getNDArray());
+        else if(g == null) gradViews[i].assign(0.0);
+        staged[i] = true;
+    }
+
+    @Override
+    public void endStep() {
+        // Parameters nobody stepped this time : zero gradient
+        for(int i=0;i<packed.size();i++) {
+            if(!staged[i]) gradViews[i].assign(0.0);
+            staged[i] = false;
+        }
+
+        t++;
+        final double bc1 = 1.0 - Math.pow(beta1, t), bc2 = 1.0 - Math.pow(beta2, t);
+        final int n = (int) offsets[packed.size()];
+        final int chunks = Math.max(1, Math.min(pool.threads(), n / MIN_CHUNK));
+
+        pool.map(chunks, c -> {
+            update(n * (long) c / chunks, n * (long) (c + 1) / chunks, bc1, bc2);
+            return null;
+        });
+    }
+
+    // Fused element-wise update of [from, to) : reads g, m, v, theta once, writes m, v, theta once
+    private void update(long from, long to, double bc1, double bc2) {
+        FloatBuffer W = theta.data().asNioFloat(), G = grad.data().asNioFloat();
+        FloatBuffer M = m.data().asNioFloat(), V = v.data().asNioFloat();
+
+        double stepSize = lr / bc1, invBc2 = 1.0 / bc2;
+
+        // Slot by slot (decay differs per parameter), starting at the slot that holds from
+        int s = Arrays.binarySearch(offsets, from);
+        s = (s >= 0) ? s : -s - 2;
+        for(long start=from;start<to;s++) {
+            long end = Math.min(to, offsets[s + 1]);
+            double decay = decays[s] ? 1.0 - lr * weightDecay : 1.0;
+
+            for(int i=(int) start;i<end;i++) {
+                double g = G.get(i);
+                double mi = beta1 * M.get(i) + (1.0 - beta1) * g;
+                double vi = beta2 * V.get(i) + (1.0 - beta2) * g * g;
+                M.put(i, (float) mi);
+                V.put(i, (float) vi);
+
+                W.put(i, (float) (W.get(i) * decay - stepSize * mi / (Math.sqrt(vi * invBc2) + eps)));
+            }
+            start = end;
+        }
+    }
+
+    // Optimizer steps taken so far (the bias correction's t)
+    public int stepCount() {
+        return t;
+    }
+
+    public long numElements() {
+        return offsets[packed.size()];
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
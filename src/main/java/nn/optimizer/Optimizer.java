@@ -5,4 +5,7 @@ import nn.core.Parameter;
 public interface Optimizer {
 
     void step(Parameter p);
+
+    // Called once per update, after every parameter's step() (optimizers that update all parameters at once)
+    default void endStep() {}
 }
@@ -1,6 +1,7 @@
 package nn.optimizer;
 
 import nn.core.Parameter;
+import tensor.StepArena;
 import tensor.Tensor;
 
 import java.util.HashMap;
@@ -28,22 +29,22 @@ public class StochasticGradientDescent implements Optimizer {
             Tensor theta = p.getData();
             Tensor grad = p.getGrad();
 
+            // Updates are in place (no temporaries)
             if(momentum == 0.0) {
                 // SGD : param = param - lr * grad
-                p.setData(theta.sub(grad.mul(lr)));
+                theta.addScaledi(grad, -lr);
 
             } else {
                 // SGD with Momentum
                 Tensor vel = momentumBuffer.computeIfAbsent(
-                        p, k -> Tensor.zeros(p.getData().shape())
+                        p, k -> StepArena.detached(() -> Tensor.zeros(p.getData().shape()))
                 );
 
                 // vel = momentum * v + grad
-                vel = vel.mul(momentum).add(p.getGrad());
-                momentumBuffer.put(p, vel);
+                vel.muli(momentum).addi(grad);
 
                 // param = param - lr * v
-                p.setData(theta.sub(vel.mul(lr)));
+                theta.addScaledi(vel, -lr);
             }
         }
     }
@@ -0,0 +1,39 @@
+package nn.transformer;
+
+import nn.transformer.attention.KVCache;
+import tensor.Tensor;
+
+// Result of Transformer.encode() : everything the decoder needs from the source, computed once
+public class EncoderState {
+
+    private final Tensor encOut;        // [B, S, d_model]
+    private final Tensor crossMask;     // [B, 1, 1, S]
+    private final KVCache[] crossKV;    // Cross-attention K/V per DecoderBlock : [B, H, S, d_h]
+
+    public EncoderState(Tensor encOut, Tensor crossMask, KVCache[] crossKV) {
+        this.encOut = encOut;
+        this.crossMask = crossMask;
+        this.crossKV = crossKV;
+    }
+
+    // Batch rows gather (rows may repeat) : compaction of finished rows, broadcast to beams
+    public EncoderState select(int[] rows) {
+        KVCache[] kv = new KVCache[crossKV.length];
+        for(int i=0;i<kv.length;i++) kv[i] = crossKV[i].select(rows);
+
+        return new EncoderState(encOut.gatherRows(rows), crossMask.gatherRows(rows), kv);
+    }
+
+    // Rows of other appended after this state's rows (same source length)
+    public EncoderState concat(EncoderState other) {
+        KVCache[] kv = new KVCache[crossKV.length];
+        for(int i=0;i<kv.length;i++) kv[i] = crossKV[i].concat(other.crossKV[i]);
+
+        return new EncoderState(Tensor.concat(0, encOut, other.encOut), Tensor.concat(0, crossMask, other.crossMask), kv);
+    }
+
+    public Tensor getEncOut() { return encOut; }
+    public Tensor getCrossMask() { return crossMask; }
+    public KVCache[] getCrossKV() { return crossKV; }
+    public int batchSize() { return encOut.size(0); }
+}
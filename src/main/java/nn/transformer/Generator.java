@@ -1,70 +1,598 @@
 package nn.transformer;
 
-import nn.transformer.trainer.ToySeq2SeqDataset;
+import nn.transformer.attention.KVCache;
+import nn.transformer.logits.BannedTokens;
+import nn.transformer.logits.LogitsPipeline;
+import nn.transformer.logits.MinLength;
 import org.nd4j.linalg.factory.Nd4j;
 import tensor.Tensor;
 
 import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 public class Generator {
 
+    private static final double NEG_INF = -1e9;
+
+    // Compact the running batch once this fraction of its rows has finished
+    private static final double COMPACT_RATIO = 0.5;
+
     public static Tensor greedyDecode(Transformer model,
                                       Tensor srcTokens, int maxLen,
                                       int bosId, int eosId, int padId) {
 
-        double NEG_INF = -1e9;
+        int[] generated = greedyDecodeBatch(model, srcTokens, maxLen, bosId, eosId, padId)[0];
+        return new Tensor(Nd4j.createFromArray(generated));
+    }
+
+    // Streaming sink : called once per generated token (EOS excluded). Returning false cancels decoding
+    @FunctionalInterface
+    public interface TokenCallback {
+        boolean onToken(int tokenId);
+    }
 
-        // valid source length
-        int srcLen = validSequenceLength(srcTokens, padId);
+    /*
+     * Streaming greedy decoding (single source, srcTokens [1, S]) : every token is pushed to callback as soon as
+     * it is chosen. Returns the tokens emitted so far (no BOS/EOS). On cancellation the decode loop stops and
+     * the decoder KV caches are released right away. metrics may be null.
+     */
+    public static int[] greedyDecodeStreaming(Transformer model,
+                                              Tensor srcTokens, int maxLen,
+                                              int bosId, int eosId, int padId,
+                                              TokenCallback callback, StreamMetrics metrics) {
+        if(metrics != null) metrics.start();
 
-        // Prevents empty sequence (while tLen <= minGen : no EOS)
+        int srcLen = validSequenceLength(srcTokens, 0, padId);
+        int minGen = Math.max(1, Math.min(srcLen, maxLen - 1));
+
+        int[] out = new int[maxLen];
+        Arrays.fill(out, padId);
+        int tLen = 0;
+        out[tLen++] = bosId;
+
+        EncoderState state = model.encode(srcTokens);
+        KVCache[] caches = model.newDecoderCaches(maxLen);
+        LogitsPipeline pipeline = basePipeline(LogitsPipeline.greedy(), minGen, bosId, eosId, padId);
+
+        try {
+            for(;tLen<maxLen;tLen++) {
+                Tensor lastId = new Tensor(Nd4j.createFromArray(new int[][]{{out[tLen - 1]}}));
+                Tensor logits = model.decodeStep(state, lastId, tLen - 1, caches);
+
+                int nextId = pipeline.next(logits, 0, out, tLen);
+                if(nextId == eosId) break;
+                out[tLen] = nextId;
+
+                if(metrics != null) metrics.onToken();
+                if(!callback.onToken(nextId)) {
+                    if(metrics != null) metrics.onCancel();
+                    tLen++;
+                    break;
+                }
+            }
+        } finally {
+            release(caches, state);
+        }
+
+        return Arrays.copyOfRange(out, 1, tLen);
+    }
+
+    /*
+     * Decoding (single source, srcTokens [1, S]) with a caller-built LogitsPipeline : the pipeline's processors
+     * (repetition penalty, temperature, top-k / top-p, ...) and its greedy / sampling choice decide every token.
+     * BOS / PAD bans and the minimum length rule are added in front of the caller's processors (see basePipeline).
+     */
+    public static Tensor decode(Transformer model,
+                                Tensor srcTokens, int maxLen,
+                                int bosId, int eosId, int padId,
+                                LogitsPipeline processors) {
+        int srcLen = validSequenceLength(srcTokens, 0, padId);
+        int minGen = Math.max(1, Math.min(srcLen, maxLen - 1));
+        LogitsPipeline pipeline = basePipeline(processors.copyEmpty(), minGen, bosId, eosId, padId).addAll(processors);
+
+        int[] out = new int[maxLen];
+        Arrays.fill(out, padId);
+        int tLen = 0;
+        out[tLen++] = bosId;
+
+        EncoderState state = model.encode(srcTokens);
+        KVCache[] caches = model.newDecoderCaches(maxLen);
+
+        try {
+            for(;tLen<maxLen;tLen++) {
+                Tensor lastId = new Tensor(Nd4j.createFromArray(new int[][]{{out[tLen - 1]}}));
+                Tensor logits = model.decodeStep(state, lastId, tLen - 1, caches);     // [1, 1, V]
+
+                int nextId = pipeline.next(logits, 0, out, tLen);
+                if(nextId == eosId) break;
+                out[tLen] = nextId;
+            }
+        } finally {
+            release(caches, state);
+        }
+
+        // No BOS/EOS
+        return new Tensor(Nd4j.createFromArray(Arrays.copyOfRange(out, 1, tLen)));
+    }
+
+    // Frees decoding KV now instead of leaving it to GC : self caches + the state's cross-attention K/V
+    private static void release(KVCache[] caches, EncoderState state) {
+        if(caches != null) for(KVCache c : caches) c.release();
+        if(state != null) for(KVCache c : state.getCrossKV()) c.release();
+    }
+
+    // BOS / PAD never generated, no EOS while tLen <= minGen
+    private static LogitsPipeline basePipeline(LogitsPipeline pipeline, int minGen, int bosId, int eosId, int padId) {
+        return pipeline.add(new BannedTokens(bosId, padId)).add(new MinLength(eosId, minGen));
+    }
+
+    // Flow.Publisher view of greedyDecodeStreaming() : decoding starts on executor when subscribed
+    public static TokenPublisher greedyDecodePublisher(Transformer model,
+                                                       Tensor srcTokens, int maxLen,
+                                                       int bosId, int eosId, int padId,
+                                                       Executor executor, StreamMetrics metrics) {
+        return new TokenPublisher(
+                cb -> greedyDecodeStreaming(model, srcTokens, maxLen, bosId, eosId, padId, cb, metrics),
+                executor);
+    }
+
+    /*
+     * Greedy decoding over a per-request vocabulary shortlist (single source, srcTokens [1, S]) :
+     * candidates = source tokens + frequentTokens + EOS, and lmHead only projects onto those columns.
+     * The argmax over candidates is mapped back to the full vocabulary id.
+     */
+    public static Tensor greedyDecodeShortlist(Transformer model,
+                                               Tensor srcTokens, int maxLen,
+                                               int bosId, int eosId, int padId,
+                                               int[] frequentTokens) {
+        int srcLen = validSequenceLength(srcTokens, 0, padId);
         int minGen = Math.max(1, Math.min(srcLen, maxLen - 1));
 
-        // Decoding buffer
+        int[] src = new int[srcLen];
+        for(int i=0;i<srcLen;i++) src[i] = srcTokens.getInt(0, i);
+        int[] vocab = shortlist(src, frequentTokens, bosId, eosId, padId);
+
+        int[] out = new int[maxLen];
+        Arrays.fill(out, padId);
+        int tLen = 0;
+        out[tLen++] = bosId;
+
+        EncoderState state = model.encode(srcTokens);
+        KVCache[] caches = model.newDecoderCaches(maxLen);
+
+        try {
+            for(;tLen<maxLen;tLen++) {
+                Tensor lastId = new Tensor(Nd4j.createFromArray(new int[][]{{out[tLen - 1]}}));
+
+                // [1, 1, |vocab|]
+                double[] row = model.decodeStep(state, lastId, tLen - 1, caches, vocab).toDoubleArray();
+
+                // Candidate argmax (BOS / PAD are never candidates), while tLen <= minGen : no EOS
+                int best = -1;
+                for(int j=0;j<vocab.length;j++) {
+                    if(vocab[j] == eosId && tLen <= minGen) continue;
+                    if(best < 0 || row[j] > row[best]) best = j;
+                }
+
+                if(best < 0) break;     // shortlist holds EOS only
+
+                int nextId = vocab[best];
+                if(nextId == eosId) break;
+                out[tLen] = nextId;
+            }
+        } finally {
+            release(caches, state);
+        }
+
+        // No BOS/EOS
+        return new Tensor(Nd4j.createFromArray(Arrays.copyOfRange(out, 1, tLen)));
+    }
+
+    // Sorted unique candidate ids : source tokens + frequent tokens + EOS (BOS / PAD excluded)
+    public static int[] shortlist(int[] srcIds, int[] frequentTokens, int bosId, int eosId, int padId) {
+        int[] all = new int[srcIds.length + frequentTokens.length + 1];
+        System.arraycopy(srcIds, 0, all, 0, srcIds.length);
+        System.arraycopy(frequentTokens, 0, all, srcIds.length, frequentTokens.length);
+        all[all.length - 1] = eosId;
+
+        return Arrays.stream(all).filter(id -> id != bosId && id != padId).distinct().sorted().toArray();
+    }
+
+    /*
+     * Greedy decoding of N sources at once : srcBatch [N, S] -> N ragged sequences (no BOS/EOS)
+     * One decodeStep per position for the whole running batch. Rows that emitted EOS are ignored,
+     * and the batch (encoder state + KV caches) is compacted once most of its rows are finished.
+     */
+    public static int[][] greedyDecodeBatch(Transformer model,
+                                            Tensor srcBatch, int maxLen,
+                                            int bosId, int eosId, int padId) {
+        int N = srcBatch.size(0);
+
+        // Prevents empty sequence (while tLen <= minGen : no EOS)
+        int[] minGen = new int[N];
+        for(int i=0;i<N;i++) {
+            int srcLen = validSequenceLength(srcBatch, i, padId);
+            minGen[i] = Math.max(1, Math.min(srcLen, maxLen - 1));
+        }
+
+        // Decoding buffers (per source row), each starts with single BOS token
+        int[][] out = new int[N][maxLen];
+        int[] lens = new int[N];
+        boolean[] done = new boolean[N];
+        for(int i=0;i<N;i++) {
+            Arrays.fill(out[i], padId);
+            out[i][0] = bosId;
+            lens[i] = 1;
+        }
+
+        // Encoder output + cross-attention K/V : computed once per source
+        EncoderState state = model.encode(srcBatch);
+
+        // Decoder self-attention K/V per layer, filled one position per step
+        KVCache[] caches = model.newDecoderCaches(maxLen);
+
+        // rows[b] : source row held by batch slot b
+        int[] rows = new int[N];
+        for(int i=0;i<N;i++) rows[i] = i;
+        int finishedInBatch = 0;
+
+        try {
+            for(int tLen=1;tLen<maxLen;tLen++) {
+                int Bcur = rows.length;
+
+                // Newest token per slot : [Bcur, 1]
+                int[][] lastIds = new int[Bcur][1];
+                for(int b=0;b<Bcur;b++) lastIds[b][0] = out[rows[b]][tLen - 1];
+
+                // Predict -> no dropout, [Bcur, 1, V] -> [Bcur, V]
+                Tensor logits = model.decodeStep(state, new Tensor(Nd4j.createFromArray(lastIds)), tLen - 1, caches);
+                int V = logits.size(-1);
+                Tensor last = logits.reshape(Bcur, V);
+
+                // Banned tokens (BOS, PAD), while tLen <= minGen : no EOS
+                for(int b=0;b<Bcur;b++) {
+                    last.set(NEG_INF, b, bosId);
+                    last.set(NEG_INF, b, padId);
+                    if(tLen <= minGen[rows[b]]) last.set(NEG_INF, b, eosId);
+                }
+
+                // Greedy choosing
+                Tensor next = last.argmax(1);
+                for(int b=0;b<Bcur;b++) {
+                    int r = rows[b];
+                    if(done[r]) continue;
+
+                    int nextId = next.getInt(b);
+                    if(nextId == eosId) {
+                        done[r] = true;
+                        finishedInBatch++;
+                    } else {
+                        out[r][tLen] = nextId;
+                        lens[r] = tLen + 1;
+                    }
+                }
+
+                if(finishedInBatch == Bcur) break;
+
+                // Drop finished rows from the running batch
+                if(finishedInBatch >= COMPACT_RATIO * Bcur) {
+                    int[] keep = new int[Bcur - finishedInBatch];
+                    int k = 0;
+                    for(int b=0;b<Bcur;b++) if(!done[rows[b]]) keep[k++] = b;
+
+                    EncoderState oldState = state;
+                    state = state.select(keep);
+                    release(null, oldState);
+                    for(int l=0;l<caches.length;l++) {
+                        KVCache old = caches[l];
+                        caches[l] = old.select(keep);
+                        old.release();
+                    }
+
+                    int[] kept = new int[keep.length];
+                    for(int i=0;i<keep.length;i++) kept[i] = rows[keep[i]];
+                    rows = kept;
+                    finishedInBatch = 0;
+                }
+            }
+        } finally {
+            release(caches, state);
+        }
+
+        // Trimmed outputs : no BOS/EOS
+        int[][] result = new int[N][];
+        for(int i=0;i<N;i++) result[i] = Arrays.copyOfRange(out[i], 1, lens[i]);
+
+        return result;
+    }
+
+    /*
+     * Beam search : srcBatch [N, S] -> best hypothesis per source (no BOS/EOS)
+     * All N * beamSize beams share one decodeStep per position. Each source is encoded once and broadcast
+     * to its beams; beam reordering is a row gather over the decoder KV caches (no recompute).
+     * Hypotheses are ranked by sum(log p) / length^lengthPenalty.
+     */
+    public static int[][] beamSearch(Transformer model,
+                                     Tensor srcBatch, int beamSize, int maxLen,
+                                     int bosId, int eosId, int padId, double lengthPenalty) {
+        int N = srcBatch.size(0);
+        int K = beamSize;
+        int R = N * K;      // rows of the running batch : row = n * K + k
+
+        int[] minGen = new int[N];
+        for(int n=0;n<N;n++) {
+            int srcLen = validSequenceLength(srcBatch, n, padId);
+            minGen[n] = Math.max(1, Math.min(srcLen, maxLen - 1));
+        }
+
+        // Encode once per source, broadcast to beams
+        int[] toBeams = new int[R];
+        for(int r=0;r<R;r++) toBeams[r] = r / K;
+        EncoderState encoded = model.encode(srcBatch);
+        EncoderState state;
+        try {
+            state = encoded.select(toBeams);
+        } finally {
+            release(null, encoded);
+        }
+
+        KVCache[] caches = model.newDecoderCaches(maxLen);
+
+        try {
+            // Beam histories / cumulative log-probs (only beam 0 alive at start -> no duplicates)
+            int[][] hist = new int[R][maxLen];
+            double[] score = new double[R];
+            for(int r=0;r<R;r++) {
+                Arrays.fill(hist[r], padId);
+                hist[r][0] = bosId;
+                score[r] = (r % K == 0) ? 0.0 : Double.NEGATIVE_INFINITY;
+            }
+
+            // Finished hypotheses per source
+            int[][] bestSeq = new int[N][];
+            double[] bestScore = new double[N];
+            int[] numFinished = new int[N];
+            boolean[] srcDone = new boolean[N];
+            Arrays.fill(bestScore, Double.NEGATIVE_INFINITY);
+
+            // Candidate buffers : 2K best (beam, token) per source, sorted descending
+            double[] candScore = new double[2 * K];
+            int[] candRow = new int[2 * K];
+            int[] candTok = new int[2 * K];
+
+            for(int tLen=1;tLen<maxLen;tLen++) {
+                int[][] lastIds = new int[R][1];
+                for(int r=0;r<R;r++) lastIds[r][0] = hist[r][tLen - 1];
+
+                Tensor logits = model.decodeStep(state, new Tensor(Nd4j.createFromArray(lastIds)), tLen - 1, caches);
+                int V = logits.size(-1);
+
+                // Log-softmax over vocabulary : [R, V]
+                Tensor last = logits.reshape(R, V);
+                Tensor shifted = last.sub(last.max(-1, true));
+                double[] logp = shifted.sub(shifted.exp().sum(-1, true).log()).toDoubleArray();
+
+                int[] parent = new int[R];
+                int[] token = new int[R];
+                double[] nextScore = new double[R];
+                int[][] nextHist = new int[R][];
+
+                for(int n=0;n<N;n++) {
+                    int base = n * K;
+
+                    if(srcDone[n]) {
+                        for(int k=0;k<K;k++) {
+                            parent[base + k] = base + k;
+                            token[base + k] = padId;
+                            nextScore[base + k] = Double.NEGATIVE_INFINITY;
+                        }
+                        continue;
+                    }
+
+                    // Top 2K expansions over all (beam, token) of this source
+                    int count = 0;
+                    for(int k=0;k<K;k++) {
+                        int r = base + k;
+                        if(score[r] == Double.NEGATIVE_INFINITY) continue;
+
+                        for(int v=0;v<V;v++) {
+                            // Banned tokens (BOS, PAD), while tLen <= minGen : no EOS
+                            if(v == bosId || v == padId || (v == eosId && tLen <= minGen[n])) continue;
+
+                            double sc = score[r] + logp[r * V + v];
+                            if(count == 2 * K && sc <= candScore[count - 1]) continue;
+
+                            int pos = (count < 2 * K) ? count++ : count - 1;
+                            while(pos > 0 && candScore[pos - 1] < sc) {
+                                candScore[pos] = candScore[pos - 1];
+                                candRow[pos] = candRow[pos - 1];
+                                candTok[pos] = candTok[pos - 1];
+                                pos--;
+                            }
+                            candScore[pos] = sc; candRow[pos] = r; candTok[pos] = v;
+                        }
+                    }
+
+                    // EOS expansions become finished hypotheses, others fill the next K beams
+                    int alive = 0;
+                    for(int c=0;c<count && alive<K;c++) {
+                        if(candTok[c] == eosId) {
+                            if(c >= K) continue;
+                            double norm = candScore[c] / Math.pow(tLen, lengthPenalty);
+                            if(norm > bestScore[n]) {
+                                bestScore[n] = norm;
+                                bestSeq[n] = Arrays.copyOfRange(hist[candRow[c]], 1, tLen);
+                            }
+                            numFinished[n]++;
+                            continue;
+                        }
+
+                        int r = base + alive++;
+                        parent[r] = candRow[c];
+                        token[r] = candTok[c];
+                        nextScore[r] = candScore[c];
+                    }
+                    for(;alive<K;alive++) {
+                        parent[base + alive] = base;
+                        token[base + alive] = padId;
+                        nextScore[base + alive] = Double.NEGATIVE_INFINITY;
+                    }
+
+                    if(numFinished[n] >= K) srcDone[n] = true;
+                }
+
+                // Reorder beams : gather histories and decoder KV caches by parent row
+                for(int r=0;r<R;r++) {
+                    nextHist[r] = hist[parent[r]].clone();
+                    nextHist[r][tLen] = token[r];
+                }
+                hist = nextHist;
+                score = nextScore;
+                for(KVCache c : caches) c.reorder(parent);
+
+                boolean allDone = true;
+                for(boolean d : srcDone) allDone &= d;
+                if(allDone) break;
+            }
+
+            // Reached maxLen : alive beams compete with finished hypotheses
+            int[][] result = new int[N][];
+            for(int n=0;n<N;n++) {
+                if(!srcDone[n]) {
+                    for(int k=0;k<K;k++) {
+                        int r = n * K + k;
+                        if(score[r] == Double.NEGATIVE_INFINITY) continue;
+
+                        int len = maxLen;
+                        while(len > 1 && hist[r][len - 1] == padId) len--;
+                        double norm = score[r] / Math.pow(len, lengthPenalty);
+                        if(norm > bestScore[n]) {
+                            bestScore[n] = norm;
+                            bestSeq[n] = Arrays.copyOfRange(hist[r], 1, len);
+                        }
+                    }
+                }
+                result[n] = (bestSeq[n] == null) ? new int[0] : bestSeq[n];
+            }
+
+            return result;
+        } finally {
+            // Includes the spare buffers of reorder()
+            release(caches, state);
+        }
+    }
+
+    /*
+     * Greedy speculative decoding (single source, srcTokens [1, S]) : returns exactly what greedyDecode() returns.
+     * The draft model proposes up to k tokens greedily, the target verifies all of them in one teacher-forced
+     * decodeStep over the chunk and accepts the longest matching prefix plus its own next token.
+     * Both models must share the target vocabulary and special ids. k >= 1, stats may be null.
+     */
+    public static Tensor speculativeDecode(Transformer target, Transformer draft,
+                                           Tensor srcTokens, int k, int maxLen,
+                                           int bosId, int eosId, int padId,
+                                           SpeculativeStats stats) {
+        if(k < 1) throw new IllegalArgumentException("speculativeDecode : k must be >= 1 (got " + k + ")");
+
+        int srcLen = validSequenceLength(srcTokens, 0, padId);
+        int minGen = Math.max(1, Math.min(srcLen, maxLen - 1));
 
         int[] out = new int[maxLen];
         Arrays.fill(out, padId);
         int tLen = 0;
-        out[tLen++] = bosId;      // Start with single BOS token
+        out[tLen++] = bosId;
+
+        EncoderState tState = target.encode(srcTokens);
+        EncoderState dState = draft.encode(srcTokens);
+        KVCache[] tCaches = target.newDecoderCaches(maxLen);
+        KVCache[] dCaches = draft.newDecoderCaches(maxLen);
+
+        try {
+            // Invariant : both caches hold at most positions [0, tLen - 1), the last token is not fed yet
+            boolean finished = false;
+            while(!finished && tLen < maxLen) {
+                int m = Math.min(k, maxLen - tLen);
 
-        for(;tLen<maxLen;tLen++) {
-            Tensor tgtIdsGen = new Tensor(Nd4j.createFromArray(out).reshape(1, maxLen));
+                // Draft : catch up on tokens it has not seen, then propose m tokens one by one
+                int[] proposal = new int[m];
+                int dLen = dCaches[0].length();
+                Tensor dLogits = draft.decodeStep(dState, idsOf(out, dLen, tLen), dLen, dCaches);
+                int draftSteps = 1;
+                int proposedLen = 0;
+                while(true) {
+                    int tok = greedyPick(lastRow(dLogits), tLen + proposedLen, minGen, bosId, eosId, padId);
+                    proposal[proposedLen++] = tok;
+                    if(tok == eosId || proposedLen == m) break;
 
-            // Predict -> no dropout (training == false)
-            Tensor logits = model.forward(srcTokens, tgtIdsGen, false);
-            int V = logits.size(-1);
+                    dLogits = draft.decodeStep(dState, idsOf(proposal, proposedLen - 1, proposedLen),
+                            tLen + proposedLen - 1, dCaches);
+                    draftSteps++;
+                }
 
-            // Last logit : [1, 1, V] -> [1, V]
-            Tensor last = logits.slice(1, tLen - 1, tLen).reshape(1, V);
+                // Target : [last token, proposal...] in one pass -> a prediction for every proposed position,
+                // plus one bonus position when the whole proposal may be accepted
+                boolean bonus = proposal[proposedLen - 1] != eosId && tLen + proposedLen < maxLen;
+                int chunkLen = proposedLen + (bonus ? 1 : 0);
+                int[] chunk = new int[chunkLen];
+                chunk[0] = out[tLen - 1];
+                System.arraycopy(proposal, 0, chunk, 1, chunkLen - 1);
+                Tensor tLogits = target.decodeStep(tState, idsOf(chunk, 0, chunkLen), tLen - 1, tCaches);
 
-            // Banned tokens (BOS, PAD), while tLen <= minGen : no EOS
-            Tensor classes = Tensor.arange(0, V).reshape(1, V);         // [1, V]
-            Tensor ban = classes.eq(bosId).add(classes.eq(padId));
+                // Longest matching prefix; the first mismatch is replaced by the target's own token
+                int accepted = 0, emitted = 0;
+                for(int j=0;j<chunkLen;j++) {
+                    int tok = greedyPick(tLogits.get(0, j).toDoubleArray(), tLen, minGen, bosId, eosId, padId);
+                    boolean match = (j < proposedLen) && (tok == proposal[j]);
+                    if(match) accepted++;
 
-            if(tLen <= minGen) ban = ban.add(classes.eq(eosId));
-            last = last.add(ban.mul(NEG_INF));
+                    emitted++;
+                    if(tok == eosId) { finished = true; break; }
+                    out[tLen++] = tok;
+                    if(!match) break;
+                }
 
-            // Greedy choosing
-            int nextId = (int) last.argmax(1).toDoubleArray()[0];
-            out[tLen] = nextId;
+                // Drop K/V of rejected positions : keep [0, tLen - 1) in both models
+                for(KVCache c : tCaches) c.truncate(Math.min(c.length(), tLen - 1));
+                for(KVCache c : dCaches) c.truncate(Math.min(c.length(), tLen - 1));
 
-            if(nextId == eosId) {
-                int[] trimmed = Arrays.copyOfRange(out, 1, tLen);   // no BOS/EOS
-                return new Tensor(Nd4j.createFromArray(trimmed));
+                if(stats != null) stats.record(proposedLen, accepted, emitted, draftSteps);
             }
+        } finally {
+            release(tCaches, tState);
+            release(dCaches, dState);
         }
 
-        // Reached maxLen : no BOS
+        // No BOS/EOS
         int[] trimmed = Arrays.copyOfRange(out, 1, tLen);
         return new Tensor(Nd4j.createFromArray(trimmed));
     }
 
-    private static int validSequenceLength(Tensor sequence, int padId) {
+    // ids[from, to) -> [1, to - from]
+    private static Tensor idsOf(int[] ids, int from, int to) {
+        return new Tensor(Nd4j.createFromArray(new int[][]{Arrays.copyOfRange(ids, from, to)}));
+    }
+
+    // logits [1, t, V] -> last position's row
+    private static double[] lastRow(Tensor logits) {
+        return logits.get(0, logits.size(1) - 1).toDoubleArray();
+    }
+
+    // Greedy choice for the token written at position tLen (BOS, PAD banned, no EOS while tLen <= minGen)
+    static int greedyPick(double[] row, int tLen, int minGen, int bosId, int eosId, int padId) {
+        int best = -1;
+        for(int v=0;v<row.length;v++) {
+            if(v == bosId || v == padId || (v == eosId && tLen <= minGen)) continue;
+            if(best < 0 || row[v] > row[best]) best = v;
+        }
+        return best;
+    }
+
+    private static int validSequenceLength(Tensor sequence, int row, int padId) {
         int validLen = 0;
         int S = sequence.size(-1);
 
         for(int i=0;i<S;i++) {
-            if(sequence.getInt(0, i) == padId) break;
+            if(sequence.getInt(row, i) == padId) break;
             validLen++;
         }
 
@@ -0,0 +1,310 @@
+package nn.transformer;
+
+import nn.transformer.attention.KVCache;
+import nn.transformer.mask.MaskUtils;
+import org.nd4j.linalg.factory.Nd4j;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Continuous-batching greedy decoding on one Transformer.
+ * submit() may be called from any thread; a single scheduler thread owns the model. Between decode steps it
+ * admits queued requests into the running batch (up to maxBatch rows) and evicts rows as soon as they finish.
+ *
+ * Running rows share one decoder KV cache length L. A row that joins at L = s writes its first token there and
+ * masks [0, s) (keyStartMask); its own token positions are tracked separately for positional encoding.
+ */
+public class InferenceEngine implements AutoCloseable {
+
+    private final Transformer model;
+    private final int maxBatch, maxSrcLen, maxLen;
+    private final int bosId, eosId, padId;
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread scheduler;
+    private volatile boolean running;
+
+    /* Scheduler-thread state */
+    private final List<Sequence> batch = new ArrayList<>();
+    private EncoderState state;
+    private KVCache[] caches;
+
+    /* Metrics */
+    private volatile int runningRows;
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong generatedTokens = new AtomicLong();
+    private final AtomicLong occupiedRowSteps = new AtomicLong();
+
+    public InferenceEngine(Transformer model, int maxBatch, int maxSrcLen, int maxLen,
+                           int bosId, int eosId, int padId) {
+        this.model = model;
+        this.maxBatch = maxBatch;
+        this.maxSrcLen = maxSrcLen;
+        this.maxLen = maxLen;
+        this.bosId = bosId; this.eosId = eosId; this.padId = padId;
+
+        this.scheduler = new Thread(this::loop, "inference-scheduler");
+        this.scheduler.setDaemon(true);
+    }
+
+    public InferenceEngine start() {
+        running = true;
+        scheduler.start();
+        return this;
+    }
+
+    // Source ids (no PAD) -> generated ids (no BOS/EOS)
+    public CompletableFuture<int[]> submit(int[] srcIds) {
+        CompletableFuture<int[]> future = new CompletableFuture<>();
+        if(srcIds.length == 0 || srcIds.length > maxSrcLen) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "Source length " + srcIds.length + " out of [1, " + maxSrcLen + "]"));
+            return future;
+        }
+        if(!running) {
+            future.completeExceptionally(new IllegalStateException("Engine is not running"));
+            return future;
+        }
+
+        // close() may have drained the queue between the check and the add : take the request back
+        Request r = new Request(srcIds, future);
+        queue.add(r);
+        if(!running && queue.remove(r)) future.completeExceptionally(new IllegalStateException("Engine is not running"));
+        return future;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public double batchOccupancy() {
+        return (double) runningRows / maxBatch;
+    }
+
+    public InferenceMetrics metrics() {
+        long s = steps.get();
+        double meanOcc = (s == 0) ? 0.0 : (double) occupiedRowSteps.get() / (s * maxBatch);
+
+        return new InferenceMetrics(queue.size(), runningRows, maxBatch,
+                s, admitted.get(), completed.get(), generatedTokens.get(), meanOcc);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        scheduler.interrupt();
+        try {
+            scheduler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        RuntimeException stopped = new IllegalStateException("Engine closed");
+        for(Sequence s : batch) s.request.future.completeExceptionally(stopped);
+        if(!scheduler.isAlive()) {
+            // Scheduler is gone : nothing reads the batch's KV anymore
+            batch.clear();
+            releaseBatchState();
+        }
+        Request r;
+        while((r = queue.poll()) != null) r.future.completeExceptionally(stopped);
+    }
+
+    /* Scheduler loop */
+
+    private void loop() {
+        while(running) {
+            try {
+                admit();
+                if(batch.isEmpty()) continue;
+
+                step();
+                evict();
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                // Fail every running request, keep serving new ones
+                for(Sequence s : batch) s.request.future.completeExceptionally(e);
+                batch.clear();
+                releaseBatchState();
+                runningRows = 0;
+            }
+        }
+    }
+
+    // Moves queued requests into free batch slots (blocks briefly while idle)
+    private void admit() throws InterruptedException {
+        List<Request> joining = new ArrayList<>();
+
+        if(batch.isEmpty()) {
+            Request first = queue.poll(50, TimeUnit.MILLISECONDS);
+            if(first == null) return;
+            joining.add(first);
+        }
+        queue.drainTo(joining, maxBatch - batch.size() - joining.size());
+        if(joining.isEmpty()) return;
+
+        // Encode the joining requests together, padded to maxSrcLen
+        int n = joining.size();
+        int[][] src = new int[n][maxSrcLen];
+        for(int i=0;i<n;i++) {
+            Arrays.fill(src[i], padId);
+            System.arraycopy(joining.get(i).srcIds, 0, src[i], 0, joining.get(i).srcIds.length);
+        }
+        EncoderState joined;
+        try {
+            joined = model.encode(new Tensor(Nd4j.createFromArray(src)));
+        } catch (RuntimeException e) {
+            // Running batch is untouched : only the joining requests fail
+            for(Request r : joining) r.future.completeExceptionally(e);
+            return;
+        }
+
+        try {
+            if(batch.isEmpty()) {
+                state = joined;
+                caches = model.newDecoderCaches(2 * maxLen);
+            } else {
+                state = state.concat(joined);
+                for(KVCache c : caches) c.addRows(n);
+            }
+        } catch (RuntimeException e) {
+            // Batch state may be half merged : loop() fails the running requests too
+            for(Request r : joining) r.future.completeExceptionally(e);
+            throw e;
+        }
+
+        int start = caches[0].length();
+        for(Request r : joining) batch.add(new Sequence(r, start, maxLen, bosId, padId));
+
+        admitted.addAndGet(n);
+        runningRows = batch.size();
+    }
+
+    // One decode step over every running row
+    private void step() {
+        int B = batch.size();
+        int L = caches[0].length();
+
+        // Free cache room : no running row needs positions before the earliest start
+        if(L + 1 > caches[0].capacity()) {
+            int shift = Integer.MAX_VALUE;
+            for(Sequence s : batch) shift = Math.min(shift, s.start);
+            for(KVCache c : caches) c.trimFront(shift);
+            for(Sequence s : batch) s.start -= shift;
+            L -= shift;
+        }
+
+        int[][] lastIds = new int[B][1];
+        int[] positions = new int[B];
+        int[] starts = new int[B];
+        for(int b=0;b<B;b++) {
+            Sequence s = batch.get(b);
+            lastIds[b][0] = s.out[s.tLen - 1];
+            positions[b] = s.tLen - 1;
+            starts[b] = s.start;
+        }
+
+        Tensor selfMask = MaskUtils.keyStartMask(starts, L + 1);
+        Tensor logits = model.decodeStep(state, new Tensor(Nd4j.createFromArray(lastIds)), positions, caches, selfMask);
+        int V = logits.size(-1);
+        double[] flat = logits.reshape(B, V).toDoubleArray();
+
+        for(int b=0;b<B;b++) {
+            Sequence s = batch.get(b);
+            double[] row = Arrays.copyOfRange(flat, b * V, (b + 1) * V);
+            int next = Generator.greedyPick(row, s.tLen, s.minGen, bosId, eosId, padId);
+
+            if(next == eosId) s.done = true;
+            else {
+                s.out[s.tLen++] = next;
+                generatedTokens.incrementAndGet();
+                if(s.tLen == maxLen) s.done = true;
+            }
+        }
+
+        steps.incrementAndGet();
+        occupiedRowSteps.addAndGet(B);
+    }
+
+    // Completes finished rows and removes them from the batch right away
+    private void evict() {
+        int B = batch.size();
+        int[] keep = new int[B];
+        int k = 0;
+        for(int b=0;b<B;b++) {
+            Sequence s = batch.get(b);
+            if(s.done) {
+                s.request.future.complete(Arrays.copyOfRange(s.out, 1, s.tLen));
+                completed.incrementAndGet();
+            } else keep[k++] = b;
+        }
+        if(k == B) return;
+
+        List<Sequence> kept = new ArrayList<>(k);
+        for(int i=0;i<k;i++) kept.add(batch.get(keep[i]));
+        batch.clear();
+        batch.addAll(kept);
+
+        if(k == 0) {
+            releaseBatchState();
+        } else {
+            int[] rows = Arrays.copyOf(keep, k);
+            EncoderState oldState = state;
+            state = state.select(rows);
+            for(KVCache c : oldState.getCrossKV()) c.release();
+            for(int l=0;l<caches.length;l++) {
+                KVCache old = caches[l];
+                caches[l] = old.select(rows);
+                old.release();
+            }
+        }
+        runningRows = batch.size();
+    }
+
+    // Frees the batch's KV now (self caches + cross-attention K/V) instead of leaving it to GC
+    private void releaseBatchState() {
+        if(caches != null) for(KVCache c : caches) c.release();
+        if(state != null) for(KVCache c : state.getCrossKV()) c.release();
+        state = null;
+        caches = null;
+    }
+
+    private static final class Request {
+        final int[] srcIds;
+        final CompletableFuture<int[]> future;
+
+        Request(int[] srcIds, CompletableFuture<int[]> future) {
+            this.srcIds = srcIds;
+            this.future = future;
+        }
+    }
+
+    private static final class Sequence {
+        final Request request;
+        final int[] out;
+        final int minGen;
+        int tLen;
+        int start;          // first shared-cache position owned by this row
+        boolean done;
+
+        Sequence(Request request, int start, int maxLen, int bosId, int padId) {
+            this.request = request;
+            this.start = start;
+            this.out = new int[maxLen];
+            Arrays.fill(out, padId);
+            out[0] = bosId;
+            this.tLen = 1;
+            this.minGen = Math.max(1, Math.min(request.srcIds.length, maxLen - 1));
+        }
+    }
+}
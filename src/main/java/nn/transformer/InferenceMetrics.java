@@ -0,0 +1,46 @@
+package nn.transformer;
+
+// Snapshot of InferenceEngine counters
+public final class InferenceMetrics {
+
+    private final int queueDepth;
+    private final int runningRows;
+    private final int maxBatch;
+    private final long steps;
+    private final long admitted;
+    private final long completed;
+    private final long generatedTokens;
+    private final double meanOccupancy;
+
+    InferenceMetrics(int queueDepth, int runningRows, int maxBatch,
+                     long steps, long admitted, long completed, long generatedTokens, double meanOccupancy) {
+        this.queueDepth = queueDepth;
+        this.runningRows = runningRows;
+        this.maxBatch = maxBatch;
+        this.steps = steps;
+        this.admitted = admitted;
+        this.completed = completed;
+        this.generatedTokens = generatedTokens;
+        this.meanOccupancy = meanOccupancy;
+    }
+
+    // Requests waiting for a batch slot
+    public int getQueueDepth() { return queueDepth; }
+    // Sequences in the running decode batch
+    public int getRunningRows() { return runningRows; }
+    // Running rows / max batch size, right now
+    public double getBatchOccupancy() { return (double) runningRows / maxBatch; }
+    // Running rows / max batch size, averaged over decode steps
+    public double getMeanOccupancy() { return meanOccupancy; }
+    public long getSteps() { return steps; }
+    public long getAdmitted() { return admitted; }
+    public long getCompleted() { return completed; }
+    public long getGeneratedTokens() { return generatedTokens; }
+
+    @Override
+    public String toString() {
+        return String.format("queue=%d | running=%d/%d | occupancy=%.3f (mean %.3f) | steps=%d | admitted=%d | completed=%d | tokens=%d",
+                queueDepth, runningRows, maxBatch, getBatchOccupancy(), meanOccupancy,
+                steps, admitted, completed, generatedTokens);
+    }
+}
@@ -0,0 +1,45 @@
+package nn.transformer;
+
+// Acceptance metrics of Generator.speculativeDecode(), accumulated over calls
+public class SpeculativeStats {
+
+    private long proposed;          // draft tokens proposed
+    private long accepted;          // draft tokens accepted by the target
+    private long emitted;           // tokens emitted (accepted + target corrections)
+    private long targetForwards;    // verification passes of the target model
+    private long draftForwards;     // decodeStep calls of the draft model
+
+    void record(int proposedTokens, int acceptedTokens, int emittedTokens, int draftSteps) {
+        proposed += proposedTokens;
+        accepted += acceptedTokens;
+        emitted += emittedTokens;
+        draftForwards += draftSteps;
+        targetForwards++;
+    }
+
+    public long getProposed() { return proposed; }
+    public long getAccepted() { return accepted; }
+    public long getEmitted() { return emitted; }
+    public long getTargetForwards() { return targetForwards; }
+    public long getDraftForwards() { return draftForwards; }
+
+    // Fraction of draft tokens accepted by the target
+    public double acceptanceRate() {
+        return (proposed == 0) ? 0.0 : (double) accepted / proposed;
+    }
+
+    // Tokens emitted per target forward (1.0 == plain greedy decoding)
+    public double tokensPerTargetForward() {
+        return (targetForwards == 0) ? 0.0 : (double) emitted / targetForwards;
+    }
+
+    public void reset() {
+        proposed = accepted = emitted = targetForwards = draftForwards = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("proposed=%d | accepted=%d | acceptance=%.3f | tokens/targetForward=%.3f",
+                proposed, accepted, acceptanceRate(), tokensPerTargetForward());
+    }
+}
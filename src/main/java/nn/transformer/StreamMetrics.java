@@ -0,0 +1,69 @@
+package nn.transformer;
+
+import java.util.Arrays;
+
+// Latency metrics of one streamed decode : time-to-first-token and inter-token latency
+public class StreamMetrics {
+
+    private long startNanos = -1;
+    private long lastNanos = -1;
+    private long firstTokenNanos = -1;
+    private long[] gaps = new long[16];
+    private int numGaps;
+    private boolean cancelled;
+
+    synchronized void start() {
+        startNanos = System.nanoTime();
+        lastNanos = startNanos;
+    }
+
+    synchronized void onToken() {
+        long now = System.nanoTime();
+        if(firstTokenNanos < 0) firstTokenNanos = now - startNanos;
+        else {
+            if(numGaps == gaps.length) gaps = Arrays.copyOf(gaps, 2 * numGaps);
+            gaps[numGaps++] = now - lastNanos;
+        }
+        lastNanos = now;
+    }
+
+    synchronized void onCancel() {
+        cancelled = true;
+    }
+
+    // Time from decode start (incl. encoding) to the first emitted token, ms (-1 : no token)
+    public synchronized double timeToFirstTokenMs() {
+        return (firstTokenNanos < 0) ? -1.0 : firstTokenNanos / 1e6;
+    }
+
+    public synchronized int tokens() {
+        return (firstTokenNanos < 0) ? 0 : numGaps + 1;
+    }
+
+    public synchronized double meanInterTokenMs() {
+        if(numGaps == 0) return 0.0;
+        long sum = 0;
+        for(int i=0;i<numGaps;i++) sum += gaps[i];
+        return sum / (numGaps * 1e6);
+    }
+
+    // q in [0, 1]
+    public synchronized double interTokenPercentileMs(double q) {
+        if(numGaps == 0) return 0.0;
+        long[] sorted = Arrays.copyOf(gaps, numGaps);
+        Arrays.sort(sorted);
+        int idx = (int) Math.min(numGaps - 1, Math.floor(q * numGaps));
+        return sorted[idx] / 1e6;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("tokens=%d | ttft=%.2f ms | itl mean=%.2f ms p50=%.2f ms p90=%.2f ms%s",
+                tokens(), timeToFirstTokenMs(), meanInterTokenMs(),
+                interTokenPercentileMs(0.5), interTokenPercentileMs(0.9), cancelled ? " | cancelled" : "");
+    }
+}
@@ -0,0 +1,112 @@
+package nn.transformer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/*
+ * Single-subscriber Flow.Publisher over a callback-driven decode (see Generator.greedyDecodePublisher()).
+ * The decode runs on the given executor and blocks while the subscriber has no outstanding demand;
+ * Subscription.cancel() stops the decode loop at the next token.
+ */
+public class TokenPublisher implements Flow.Publisher<Integer> {
+
+    private final Function<Generator.TokenCallback, int[]> decode;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public TokenPublisher(Function<Generator.TokenCallback, int[]> decode, Executor executor) {
+        this.decode = decode;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+        if(!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) {}
+                @Override public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("TokenPublisher supports a single subscriber"));
+            return;
+        }
+
+        TokenSubscription subscription = new TokenSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        executor.execute(() -> {
+            Throwable failure = null;
+            try {
+                decode.apply(subscription::emit);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            subscription.finish(failure);
+        });
+    }
+
+    private static final class TokenSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super Integer> subscriber;
+        private long demand;
+        private boolean cancelled;
+        private Throwable error;        // Invalid request(n) : signalled by the decode thread, which stops at it
+
+        TokenSubscription(Flow.Subscriber<? super Integer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if(n <= 0) {
+                // Rule 3.9 : onError, but sent by the decode thread (signals to the subscriber stay serial)
+                if(!cancelled && error == null) error = new IllegalArgumentException("request(" + n + ") : n must be > 0");
+                notifyAll();
+                return;
+            }
+            demand = (Long.MAX_VALUE - demand < n) ? Long.MAX_VALUE : demand + n;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        synchronized boolean isActive() {
+            return !cancelled && error == null;
+        }
+
+        // Decode thread, once the decode has returned : the terminal signal (none after cancel())
+        void finish(Throwable failure) {
+            Throwable t;
+            synchronized(this) {
+                if(cancelled) return;
+                t = (error != null) ? error : failure;
+                cancelled = true;
+            }
+
+            if(t != null) subscriber.onError(t);
+            else subscriber.onComplete();
+        }
+
+        // Decode thread : waits for demand, then delivers. false -> stop decoding
+        boolean emit(int tokenId) {
+            synchronized(this) {
+                try {
+                    while(demand == 0 && !cancelled && error == null) wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+                if(cancelled || error != null) return false;
+                demand--;
+            }
+
+            subscriber.onNext(tokenId);
+            return isActive();
+        }
+    }
+}
@@ -1,18 +1,24 @@
 package nn.transformer;
 
+import nn.core.ActivationContext;
+import nn.core.GradientListener;
 import nn.core.Module;
 import nn.core.Parameter;
+import nn.core.ParameterRegistry;
 import nn.layers.Linear;
 import nn.optimizer.Optimizer;
+import nn.transformer.attention.KVCache;
 import nn.transformer.embeddings.SinusoidalPositionalEncoding;
 import nn.transformer.embeddings.TokenEmbeddings;
 import nn.transformer.mask.MaskUtils;
 import nn.transformer.modules.Decoder;
 import nn.transformer.modules.Encoder;
+import nn.transformer.pipeline.MicroBatch;
+import nn.transformer.pipeline.PipelineStage;
 import tensor.Tensor;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Transformer implements Module {
 
@@ -24,6 +30,15 @@ public class Transformer implements Module {
 
     private final int padId, bosId, eosId;
 
+    private GradientListener gradientListener;
+
+    // Each Parameter once (lmHead may share tgtEmb's weight, tgtEmb srcEmb's)
+    private final ParameterRegistry registry;
+    // Embeddings sharing a weight with a module whose backward runs before theirs : add onto its gradient
+    private final boolean tgtEmbTied, srcEmbTied;
+    // Reported to the gradient listener by the last module of backward that writes them
+    private final List<Parameter> lmHeadFinal, tgtEmbFinal;
+
     public Transformer(TokenEmbeddings srcEmb,
                        TokenEmbeddings tgtEmb,
                        SinusoidalPositionalEncoding posEnc,
@@ -36,6 +51,13 @@ public class Transformer implements Module {
         this.lmHead = lmHead;
 
         this.padId = padId; this.bosId = bosId; this.eosId = eosId;
+
+        // Backward order : lmHead, decoder, encoder, tgtEmb, srcEmb
+        this.registry = new ParameterRegistry(srcEmb, tgtEmb, encoder, decoder, lmHead);
+        this.tgtEmbTied = ParameterRegistry.shares(tgtEmb, lmHead);
+        this.srcEmbTied = ParameterRegistry.shares(srcEmb, lmHead) || ParameterRegistry.shares(srcEmb, tgtEmb);
+        this.lmHeadFinal = ParameterRegistry.excluding(lmHead, tgtEmb, srcEmb);
+        this.tgtEmbFinal = ParameterRegistry.excluding(tgtEmb, srcEmb);
     }
 
     @Override
@@ -56,16 +78,76 @@ public class Transformer implements Module {
     }
 
 
-    // Forward for training (Teacher forcing)
+    // Forward for training (Teacher forcing) : logits at every target position [B, T, V]
+    // training == false : no-grad, in its own ActivationContext (safe to call from several threads at once)
     public Tensor forward(Tensor srcIds, Tensor tgtIds, boolean training) {
-        int[] srcLens = lengthsFromIds(srcIds, padId);
+        if(!training) return inference(() -> {
+            Tensor Y = decoderHidden(srcIds, tgtIds, false);
+            Tensor logits = lmHead.forward(Y, false);
+            Y.release();
+
+            return logits;
+        });
+
+        Tensor Y = decoderHidden(srcIds, tgtIds, true);
+
+        // Projection
+        Tensor logits = lmHead.forward(Y, training);
+        return logits;
+    }
+
+    // Inference (teacher forcing) : logits only at positions[b] of each row -> [B, 1, V]
+    // Decoder states are gathered before lmHead, so the vocabulary projection runs on B rows instead of B * T
+    public Tensor forwardAt(Tensor srcIds, Tensor tgtIds, int[] positions) {
+        int B = tgtIds.size(0);
+        int T = tgtIds.size(1);
+        if(positions.length != B) throw new IllegalArgumentException("One position per row expected");
+
+        int[] rows = new int[B];
+        for(int b=0;b<B;b++) {
+            if(positions[b] < 0 || positions[b] >= T)
+                throw new IllegalArgumentException("positions["+b+"] out of range : " + positions[b]);
+            rows[b] = b * T + positions[b];
+        }
+
+        return inference(() -> {
+            Tensor Y = decoderHidden(srcIds, tgtIds, false);        // [B, T, d]
+            int d = Y.size(-1);
+            Tensor picked = Y.reshape(B * T, d).gatherRows(rows).reshape(B, 1, d);
+            Y.release();
+
+            return lmHead.forward(picked, false);
+        });
+    }
+
+    // Inference : logits at the last non-PAD target position of each row -> [B, 1, V]
+    public Tensor forwardLast(Tensor srcIds, Tensor tgtIds) {
         int[] tgtLens = lengthsFromIds(tgtIds, padId);
+        int[] positions = new int[tgtLens.length];
+        for(int b=0;b<positions.length;b++) positions[b] = Math.max(0, tgtLens[b] - 1);
+
+        return forwardAt(srcIds, tgtIds, positions);
+    }
 
+    // Encoder + Decoder (no projection) : [B, T, d_model]
+    private Tensor decoderHidden(Tensor srcIds, Tensor tgtIds, boolean training) {
         // Embeddings + positional
         Tensor srcX = posEnc.apply(srcEmb.forward(srcIds, training));
         Tensor tgtX = posEnc.apply(tgtEmb.forward(tgtIds, training));
 
         // Masks
+        Tensor[] masks = attentionMasks(srcIds, tgtIds);
+
+        // Encoder / Decoder
+        Tensor encOut = encoder.forwardMany(training, srcX, masks[0]);
+        return decoder.forwardMany(training, tgtX, encOut, masks[1], masks[2]);
+    }
+
+    // {encoder self, decoder self (causal + PAD), cross} masks
+    private Tensor[] attentionMasks(Tensor srcIds, Tensor tgtIds) {
+        int[] srcLens = lengthsFromIds(srcIds, padId);
+        int[] tgtLens = lengthsFromIds(tgtIds, padId);
+
         int B = srcIds.size(0);
         int S = srcIds.size(1);
         int T = tgtIds.size(1);
@@ -76,17 +158,108 @@ public class Transformer implements Module {
         Tensor decSelfMask = causal.add(tgtPadMask);                        // [B, 1, T, T]
         Tensor crossMask = MaskUtils.padMaskFromLength(srcLens, T, S);      // [B, 1, T, S]
 
-        // Encoder / Decoder
-        Tensor encOut = encoder.forwardMany(training, srcX, encMask);
-        Tensor Y = decoder.forwardMany(training, tgtX, encOut, decSelfMask, crossMask);
+        return new Tensor[]{encMask, decSelfMask, crossMask};
+    }
 
-        // Projection
-        Tensor logits = lmHead.forward(Y, training);
-        return logits;
+    /*
+     * Pipeline parallelism : the layers [encoder blocks..., decoder blocks...] cut into numStages contiguous
+     * ranges of (almost) equal size. Stage 0 also runs the embeddings, the last stage lmHead.
+     * Stages share this model's modules; run them with a PipelineTrainer.
+     */
+    public PipelineStage[] pipelineStages(int numStages) {
+        int encN = encoder.numBlocks(), decN = decoder.numBlocks();
+        int L = encN + decN;
+        if(numStages < 1 || numStages > L)
+            throw new IllegalArgumentException("numStages must be in [1, " + L + "] : " + numStages);
+        if(decN == 0) throw new IllegalStateException("Pipeline needs at least one DecoderBlock");
+
+        Object tiedLock = new Object();
+        PipelineStage[] stages = new PipelineStage[numStages];
+        for(int s=0;s<numStages;s++) {
+            int lo = L * s / numStages, hi = L * (s + 1) / numStages;
+            boolean first = (s == 0), last = (s == numStages - 1);
+
+            stages[s] = new PipelineStage(
+                    first ? srcEmb : null, first ? tgtEmb : null, posEnc,
+                    encoder, Math.min(lo, encN), Math.min(hi, encN),
+                    decoder, Math.max(lo - encN, 0), Math.max(hi - encN, 0),
+                    last ? lmHead : null, tiedLock);
+        }
+
+        return stages;
+    }
+
+    // Inputs of one pipeline micro-batch (teacher forcing), weight : its share of the step's loss
+    public MicroBatch microBatch(int index, Tensor srcIds, Tensor tgtInIds, Tensor tgtOutIds, double weight) {
+        Tensor[] masks = attentionMasks(srcIds, tgtInIds);
+        return new MicroBatch(index, srcIds, tgtInIds, tgtOutIds, tgtOutIds.ne(padId),
+                masks[0], masks[1], masks[2], weight);
+    }
+
+    // Inference : runs the encoder once and projects cross-attention K/V of every DecoderBlock
+    public EncoderState encode(Tensor srcIds) {
+        int[] srcLens = lengthsFromIds(srcIds, padId);
+        int S = srcIds.size(1);
+
+        return inference(() -> {
+            Tensor srcX = posEnc.apply(srcEmb.forward(srcIds, false));
+            Tensor encMask = MaskUtils.padMaskFromLength(srcLens, S, S);        // [B, 1, S, S]
+            Tensor encOut = encoder.forwardMany(false, srcX, encMask);
+
+            Tensor crossMask = MaskUtils.padMaskFromLength(srcLens, 1, S);      // [B, 1, 1, S]
+
+            return new EncoderState(encOut, crossMask, decoder.precomputeCrossKV(encOut));
+        });
+    }
+
+    // Incremental decoding : tgtIds [B, t] are the newest target tokens starting at position pos -> logits [B, t, V]
+    // Decoder self-attention K/V of earlier positions come from selfCaches (see newDecoderCaches())
+    // t > 1 : teacher-forced over the chunk (e.g. verification of speculative tokens)
+    public Tensor decodeStep(EncoderState state, Tensor tgtIds, int pos, KVCache[] selfCaches) {
+        return inference(() -> {
+            Tensor tgtX = posEnc.apply(tgtEmb.forward(tgtIds, false), pos);
+            Tensor Y = decoder.forwardStep(tgtX, selfCaches, null, state.getCrossKV(), state.getCrossMask());
+
+            return lmHead.forward(Y, false);
+        });
+    }
+
+    // Incremental decoding over a vocabulary shortlist : logits [B, t, vocab.length], column j <-> token vocab[j]
+    public Tensor decodeStep(EncoderState state, Tensor tgtIds, int pos, KVCache[] selfCaches, int[] vocab) {
+        return inference(() -> {
+            Tensor tgtX = posEnc.apply(tgtEmb.forward(tgtIds, false), pos);
+            Tensor Y = decoder.forwardStep(tgtX, selfCaches, null, state.getCrossKV(), state.getCrossMask());
+
+            return lmHead.forwardColumns(Y, vocab);
+        });
+    }
+
+    // Incremental decoding with a per-row position (continuous batching) : tgtIds [B, 1] -> logits [B, 1, V]
+    // selfMask [B, 1, 1, L] hides cached positions that do not belong to a row
+    public Tensor decodeStep(EncoderState state, Tensor tgtIds, int[] positions, KVCache[] selfCaches, Tensor selfMask) {
+        return inference(() -> {
+            Tensor tgtX = posEnc.apply(tgtEmb.forward(tgtIds, false), positions);
+            Tensor Y = decoder.forwardStep(tgtX, selfCaches, selfMask, state.getCrossKV(), state.getCrossMask());
+
+            return lmHead.forward(Y, false);
+        });
+    }
+
+    public KVCache[] newDecoderCaches(int maxLen) {
+        return decoder.newCaches(maxLen);
+    }
+
+    // Inference calls run in a no-grad context of their own : nothing is kept for backward, intermediates are
+    // freed layer by layer, and weights are only read, so concurrent calls on one model do not interfere
+    private <R> R inference(Supplier<R> body) {
+        try(ActivationContext ignored = ActivationContext.noGrad()) {
+            return body.get();
+        }
     }
 
     public void backward(Tensor dLogits, boolean accumulate, double scale) {
         Tensor dY = lmHead.calcGradients(dLogits, accumulate, scale);
+        notifyReady(lmHeadFinal);
 
         // Decoder
         Tensor[] gDec = decoder.calcGradientsMany(dY, accumulate, 1.0);
@@ -97,28 +270,45 @@ public class Transformer implements Module {
         Tensor dSrcX = encoder.calcGradients(dEncOut, accumulate, 1.0);
 
         // Embeddings
-        tgtEmb.calcGradients(dTgtX, accumulate, 1.0);
-        srcEmb.calcGradients(dSrcX, accumulate, 1.0);
+        // A tied embedding adds onto the gradient written earlier in this backward
+        tgtEmb.calcGradients(dTgtX, accumulate || tgtEmbTied, 1.0);
+        notifyReady(tgtEmbFinal);
+        srcEmb.calcGradients(dSrcX, accumulate || srcEmbTied, 1.0);
+        notifyReady(srcEmb.parameters());
+    }
+
+    /*
+     * Backward reports parameters as their gradients are computed : lmHead, each DecoderBlock, each EncoderBlock,
+     * then the embeddings. Every entry of parameters() is reported exactly once per backward, when it is final :
+     * a tied weight by the last module of backward that writes its gradient.
+     */
+    public void setGradientListener(GradientListener listener) {
+        this.gradientListener = listener;
+        encoder.setGradientListener(listener);
+        decoder.setGradientListener(listener);
+    }
+
+    private void notifyReady(List<Parameter> ps) {
+        if(gradientListener != null) gradientListener.onGradientsReady(ps);
     }
 
 
     @Override
     public void update(Optimizer optimizer) {
-        srcEmb.update(optimizer);
-        tgtEmb.update(optimizer);
-        encoder.update(optimizer);
-        decoder.update(optimizer);
-        lmHead.update(optimizer);
+        // Modules still decide what is trainable; a shared weight is stepped once
+        Optimizer once = ParameterRegistry.stepOnce(optimizer);
+        srcEmb.update(once);
+        tgtEmb.update(once);
+        encoder.update(once);
+        decoder.update(once);
+        lmHead.update(once);
+        optimizer.endStep();
     }
 
+    // Each Parameter once, in forward order (tied weights at their first module)
     @Override
     public List<Parameter> parameters() {
-        List<Parameter> ps = new ArrayList<>();
-        ps.addAll(srcEmb.parameters()); ps.addAll(tgtEmb.parameters());
-        ps.addAll(encoder.parameters()); ps.addAll(decoder.parameters());
-        ps.addAll(lmHead.parameters());
-
-        return ps;
+        return registry.parameters();
     }
 
     @Override
@@ -0,0 +1,18 @@
+package nn.transformer.attention;
+
+import nn.core.Module;
+import tensor.Tensor;
+
+/*
+ * Attention layer of an EncoderBlock / DecoderBlock : forwardMany(training, Xq, Xkv, mask) and
+ * calcGradientsMany(dY, ...) -> {dXq, dXkv (cross only)} for training, plus the incremental path of generation.
+ * MultiHeadAttention, or ShardedMultiHeadAttention for heads split over threads.
+ */
+public interface Attention extends Module {
+
+    // X [B, t, d_model] : the t newest positions (see MultiHeadAttention.forwardStep())
+    Tensor forwardStep(Tensor X, KVCache cache, Tensor mask);
+
+    // Cross-attention : encoder output [B, S, d_model] -> K/V cache of [B, H, S, d_h]
+    KVCache precomputeKV(Tensor Xkv);
+}
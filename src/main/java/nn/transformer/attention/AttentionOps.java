@@ -1,9 +1,14 @@
 package nn.transformer.attention;
 
+import nn.core.ActivationContext;
+import nn.transformer.mask.MaskUtils;
 import tensor.Tensor;
 
 public class AttentionOps {
 
+    // Query/Key-Value tile size for tiled attention
+    public static final int FLASH_BLOCK = 64;
+
     public static Tensor qkScores(Tensor Q, Tensor K, double scale) {
         return Q.matmul(K.transpose(-1, -2)).div(scale);
     }
@@ -15,10 +20,128 @@ public class AttentionOps {
 
     public static Tensor softmaxLast(Tensor attnScores) {
         Tensor max = attnScores.max(-1, true);
-        Tensor shifted = attnScores.sub(max).exp();
-        Tensor denom = shifted.sum(-1, true).add(1e-12);
+        Tensor P = attnScores.sub(max).expi();
+        Tensor sum = P.sum(-1, true).addi(1e-12);
+        P.divi(sum);
+
+        // No-grad : temporaries freed now
+        ActivationContext.current().discard(max, sum);
+        return P;
+    }
+
+    /*
+     * Tiled attention forward : O = softmax(QK^T/scale + mask) x V
+     * Runs an online softmax (running max / sum) over KV blocks, so [B, H, Tq, Tkv] is never materialized.
+     *
+     * Q : [B, H, Tq, d_h], K, V : [B, H, Tkv, d_h], mask : [B, 1, Tq, Tkv] (additive, nullable)
+     * return : {O : [B, H, Tq, d_h], LSE : [B, H, Tq, 1]} (per-row logsumexp, kept for backward)
+     */
+    public static Tensor[] flashForward(Tensor Q, Tensor K, Tensor V, Tensor mask, double scale,
+                                        int blockSize, double dropProb, long dropSeed) {
+        int Tq = Q.size(-2), Tkv = K.size(-2);
+        int nQ = numBlocks(Tq, blockSize), nKV = numBlocks(Tkv, blockSize);
+
+        Tensor[] Kb = blocks(K, blockSize, nKV);
+        Tensor[] Vb = blocks(V, blockSize, nKV);
+
+        Tensor[] Ob = new Tensor[nQ];
+        Tensor[] Lb = new Tensor[nQ];
+
+        for(int i=0;i<nQ;i++) {
+            int q0 = i * blockSize, q1 = Math.min(Tq, q0 + blockSize);
+            Tensor Qi = Q.slice(-2, q0, q1);
+            Tensor maskI = (mask == null) ? null : mask.slice(-2, q0, q1);
+
+            // Running max, running sum, unnormalized output
+            Tensor m = null, l = null, acc = null;
+
+            for(int j=0;j<nKV;j++) {
+                Tensor S = blockScores(Qi, Kb[j], maskI, j, blockSize, scale);     // [B, H, bq, bk]
+
+                Tensor mNew = (m == null) ? S.max(-1, true) : m.maximum(S.max(-1, true));
+                Tensor Pij = S.sub(mNew).expi();
+                Tensor rowSum = Pij.sum(-1, true);
+
+                // Dropout after normalization term (softmax denominator uses undropped P)
+                if(dropProb > 0.0)
+                    Pij.muli(MaskUtils.dropoutMaskLike(Pij, dropProb, blockSeed(dropSeed, i, j, nKV)));
+
+                Tensor PV = Pij.matmul(Vb[j]);                                     // [B, H, bq, d_h]
+
+                if(m == null) {
+                    l = rowSum;
+                    acc = PV;
+                } else {
+                    // Rescale previous blocks to the new running max
+                    Tensor alpha = m.sub(mNew).exp();
+                    l = l.mul(alpha).add(rowSum);
+                    acc = acc.mul(alpha).add(PV);
+                }
+                m = mNew;
+            }
+
+            Ob[i] = acc.div(l.add(1e-12));
+            Lb[i] = m.add(l.add(1e-12).log());
+        }
+
+        return new Tensor[]{ Tensor.concat(-2, Ob), Tensor.concat(-2, Lb) };
+    }
+
+    /*
+     * Tiled attention backward : P blocks are recomputed from LSE, i.e. P = exp(QK^T/scale + mask - LSE)
+     * dO, O : [B, H, Tq, d_h], LSE : [B, H, Tq, 1]
+     * return : {dQ, dK, dV}
+     */
+    public static Tensor[] flashBackward(Tensor dO, Tensor Q, Tensor K, Tensor V, Tensor O, Tensor lse,
+                                         Tensor mask, double scale,
+                                         int blockSize, double dropProb, long dropSeed) {
+        int Tq = Q.size(-2), Tkv = K.size(-2);
+        int nQ = numBlocks(Tq, blockSize), nKV = numBlocks(Tkv, blockSize);
+
+        Tensor[] Kb = blocks(K, blockSize, nKV);
+        Tensor[] Vb = blocks(V, blockSize, nKV);
+
+        Tensor[] dQb = new Tensor[nQ];
+        Tensor[] dKb = new Tensor[nKV];
+        Tensor[] dVb = new Tensor[nKV];
 
-        return shifted.div(denom);
+        for(int i=0;i<nQ;i++) {
+            int q0 = i * blockSize, q1 = Math.min(Tq, q0 + blockSize);
+            Tensor Qi = Q.slice(-2, q0, q1);
+            Tensor dOi = dO.slice(-2, q0, q1);
+            Tensor Li = lse.slice(-2, q0, q1);
+            Tensor maskI = (mask == null) ? null : mask.slice(-2, q0, q1);
+
+            // D = rowsum(dO * O) == rowsum(dP * P)
+            Tensor Di = dOi.mul(O.slice(-2, q0, q1)).sum(-1, true);               // [B, H, bq, 1]
+
+            Tensor dQi = null;
+            for(int j=0;j<nKV;j++) {
+                Tensor P = blockScores(Qi, Kb[j], maskI, j, blockSize, scale).sub(Li).expi();
+                Tensor dP = dOi.matmul(Vb[j].transpose(-1, -2));                   // [B, H, bq, bk]
+                Tensor Pd = P;
+
+                if(dropProb > 0.0) {
+                    Tensor drop = MaskUtils.dropoutMaskLike(P, dropProb, blockSeed(dropSeed, i, j, nKV));
+                    Pd = P.mul(drop);
+                    dP.muli(drop);
+                }
+
+                // dS = P * (dP - D)
+                Tensor dS = P.mul(dP.sub(Di));
+
+                Tensor dVj = Pd.transpose(-1, -2).matmul(dOi);                     // [B, H, bk, d_h]
+                Tensor dKj = dS.transpose(-1, -2).matmul(Qi).div(scale);           // [B, H, bk, d_h]
+                Tensor dQij = dS.matmul(Kb[j]).div(scale);                         // [B, H, bq, d_h]
+
+                dVb[j] = (dVb[j] == null) ? dVj : dVb[j].add(dVj);
+                dKb[j] = (dKb[j] == null) ? dKj : dKb[j].add(dKj);
+                dQi = (dQi == null) ? dQij : dQi.add(dQij);
+            }
+            dQb[i] = dQi;
+        }
+
+        return new Tensor[]{ Tensor.concat(-2, dQb), Tensor.concat(-2, dKb), Tensor.concat(-2, dVb) };
     }
 
     public static Tensor splitHeads(Tensor X, int H) {
@@ -51,4 +174,32 @@ public class AttentionOps {
         // Merge : [B, T, h * d_h], where h * d_h = d_model
         return tmp.reshape(B, T, h * d_h);
     }
+
+    /* private helper methods */
+
+    private static int numBlocks(int T, int blockSize) {
+        return (T + blockSize - 1) / blockSize;
+    }
+
+    // X : [B, H, T, d_h] -> n * [B, H, <=blockSize, d_h]
+    private static Tensor[] blocks(Tensor X, int blockSize, int n) {
+        int T = X.size(-2);
+        Tensor[] out = new Tensor[n];
+        for(int j=0;j<n;j++) out[j] = X.slice(-2, j * blockSize, Math.min(T, (j + 1) * blockSize));
+
+        return out;
+    }
+
+    // Masked scores of a single (query block, KV block j) tile : [B, H, bq, bk]
+    private static Tensor blockScores(Tensor Qi, Tensor Kj, Tensor maskI, int j, int blockSize, double scale) {
+        Tensor S = qkScores(Qi, Kj, scale);
+        if(maskI == null) return S;
+
+        int k0 = j * blockSize;
+        return applyMask(S, maskI.slice(-1, k0, k0 + Kj.size(-2)));
+    }
+
+    private static long blockSeed(long seed, int i, int j, int nKV) {
+        return seed + (long) i * nKV + j;
+    }
 }
@@ -0,0 +1,206 @@
+package nn.transformer.attention;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import tensor.Tensor;
+
+import static org.nd4j.linalg.indexing.NDArrayIndex.*;
+
+// Per-layer Key/Value cache for incremental decoding : K, V buffers of [B, H, capacity, d_h]
+public class KVCache {
+
+    private final int capacity;
+    private INDArray K, V;
+    private INDArray spareK, spareV;    // reorder() target, allocated on first use
+    private int length;
+
+    public KVCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Kh, Vh : [B, H, t, d_h] -> written at positions [length, length + t)
+    public void append(Tensor Kh, Tensor Vh) {
+        INDArray k = Kh.getNDArray();
+        INDArray v = Vh.getNDArray();
+        int t = (int) k.size(2);
+
+        // Buffers are allocated once, on the first append
+        if(K == null) {
+            long[] shape = {k.size(0), k.size(1), capacity, k.size(3)};
+            K = Nd4j.create(k.dataType(), shape);
+            V = Nd4j.create(v.dataType(), shape);
+        }
+
+        if(length + t > capacity)
+            throw new IllegalStateException("KVCache overflow : " + (length + t) + " > capacity(" + capacity + ")");
+
+        K.get(all(), all(), interval(length, length + t), all()).assign(k);
+        V.get(all(), all(), interval(length, length + t), all()).assign(v);
+        length += t;
+    }
+
+    // Cached keys : [B, H, length, d_h] (view)
+    public Tensor keys() {
+        return new Tensor(K.get(all(), all(), interval(0, length), all()));
+    }
+
+    // Cached values : [B, H, length, d_h] (view)
+    public Tensor values() {
+        return new Tensor(V.get(all(), all(), interval(0, length), all()));
+    }
+
+    // Batch rows gather (rows may repeat) : compaction of finished rows. Only positions [0, length) are copied
+    public KVCache select(int[] rows) {
+        KVCache out = new KVCache(capacity);
+        if(K != null) {
+            long[] shape = K.shape().clone();
+            shape[0] = rows.length;
+            out.K = Nd4j.create(K.dataType(), shape);
+            out.V = Nd4j.create(V.dataType(), shape);
+            gatherInto(K, out.K, rows);
+            gatherInto(V, out.V, rows);
+        }
+        out.length = length;
+
+        return out;
+    }
+
+    // Beam reordering in place (rows.length == batch, rows may repeat) : positions [0, length) are gathered into a
+    // spare buffer that then swaps with the cache, so steady-state decoding allocates nothing. Identity is a no-op
+    public void reorder(int[] rows) {
+        if(K == null || length == 0 || isIdentity(rows)) return;
+        if(rows.length != K.size(0))
+            throw new IllegalArgumentException("reorder expects " + K.size(0) + " rows : " + rows.length);
+
+        if(spareK == null || spareK.size(0) != K.size(0)) {
+            spareK = Nd4j.create(K.dataType(), K.shape());
+            spareV = Nd4j.create(V.dataType(), V.shape());
+        }
+        gatherInto(K, spareK, rows);
+        gatherInto(V, spareV, rows);
+
+        INDArray k = K, v = V;
+        K = spareK; V = spareV;
+        spareK = k; spareV = v;
+    }
+
+    private void gatherInto(INDArray src, INDArray dst, int[] rows) {
+        for(int r=0;r<rows.length;r++)
+            dst.get(point(r), all(), interval(0, length), all()).assign(src.get(point(rows[r]), all(), interval(0, length), all()));
+    }
+
+    private static boolean isIdentity(int[] rows) {
+        for(int r=0;r<rows.length;r++) if(rows[r] != r) return false;
+        return true;
+    }
+
+    /*
+     * Heads [from, to) of this cache, sharing its buffers (one shard of ShardedMultiHeadAttention) : append() through
+     * the view writes this cache's positions [length, length + t), then advance(t) moves this cache's length.
+     * Views are only for append / keys / values, and are valid until this cache is modified.
+     */
+    public KVCache heads(int from, int to) {
+        if(K == null) throw new IllegalStateException("heads() of an unallocated KVCache : reserve() it first");
+
+        KVCache view = new KVCache(capacity);
+        view.K = K.get(all(), interval(from, to), all(), all());
+        view.V = V.get(all(), interval(from, to), all(), all());
+        view.length = length;
+
+        return view;
+    }
+
+    // Buffers of [batch, numHeads, capacity, d_h], if not allocated yet (what the first append() would do)
+    public void reserve(long batch, long numHeads, long d_h, DataType type) {
+        if(K != null) return;
+
+        long[] shape = {batch, numHeads, capacity, d_h};
+        K = Nd4j.create(type, shape);
+        V = Nd4j.create(type, shape);
+    }
+
+    // t positions written through heads() views
+    public void advance(int t) {
+        if(length + t > capacity)
+            throw new IllegalStateException("KVCache overflow : " + (length + t) + " > capacity(" + capacity + ")");
+        length += t;
+    }
+
+    // Caches of consecutive head groups (same rows, length and capacity) -> one cache over all their heads
+    public static KVCache concatHeads(KVCache... parts) {
+        INDArray[] ks = new INDArray[parts.length], vs = new INDArray[parts.length];
+        for(int i=0;i<parts.length;i++) {
+            if(parts[i].length != parts[0].length || parts[i].capacity != parts[0].capacity)
+                throw new IllegalArgumentException("KVCache concatHeads expects the same length/capacity");
+            ks[i] = parts[i].K; vs[i] = parts[i].V;
+        }
+
+        KVCache out = new KVCache(parts[0].capacity);
+        out.K = (parts.length == 1) ? ks[0].dup() : Nd4j.concat(1, ks);
+        out.V = (parts.length == 1) ? vs[0].dup() : Nd4j.concat(1, vs);
+        out.length = parts[0].length;
+
+        return out;
+    }
+
+    public int length() { return length; }
+    public int capacity() { return capacity; }
+
+    public void reset() {
+        length = 0;
+    }
+
+    // Frees the off-heap buffers now instead of waiting for GC (cache is empty afterwards)
+    public void release() {
+        if(K != null && K.closeable()) K.close();
+        if(V != null && V.closeable()) V.close();
+        if(spareK != null && spareK.closeable()) spareK.close();
+        if(spareV != null && spareV.closeable()) spareV.close();
+        K = null; V = null;
+        spareK = null; spareV = null;
+        length = 0;
+    }
+
+    // Rows of other appended after this cache's rows (same length and capacity)
+    public KVCache concat(KVCache other) {
+        if(other.length != length || other.capacity != capacity)
+            throw new IllegalArgumentException("KVCache concat expects the same length/capacity");
+
+        KVCache out = new KVCache(capacity);
+        out.K = (K == null) ? other.K : (other.K == null) ? K : Nd4j.concat(0, K, other.K);
+        out.V = (V == null) ? other.V : (other.V == null) ? V : Nd4j.concat(0, V, other.V);
+        out.length = length;
+
+        return out;
+    }
+
+    // n zero rows appended : positions of new rows are meant to be masked until they are written
+    public void addRows(int n) {
+        if(K == null) return;
+
+        long[] shape = K.shape().clone();
+        shape[0] = n;
+        K = Nd4j.concat(0, K, Nd4j.zeros(K.dataType(), shape));
+        V = Nd4j.concat(0, V, Nd4j.zeros(V.dataType(), shape));
+    }
+
+    // Drops the first n positions of every row : [n, length) -> [0, length - n)
+    public void trimFront(int n) {
+        if(n <= 0) return;
+        if(n > length) throw new IllegalArgumentException("trimFront(" + n + ") > length(" + length + ")");
+
+        INDArray k = K.get(all(), all(), interval(n, length), all()).dup();
+        INDArray v = V.get(all(), all(), interval(n, length), all()).dup();
+        K.get(all(), all(), interval(0, length - n), all()).assign(k);
+        V.get(all(), all(), interval(0, length - n), all()).assign(v);
+        length -= n;
+    }
+
+    // Rollback to the first `length` positions (e.g. rejected speculative tokens)
+    public void truncate(int length) {
+        if(length < 0 || length > this.length)
+            throw new IllegalArgumentException("truncate(" + length + ") out of range [0, " + this.length + "]");
+        this.length = length;
+    }
+}
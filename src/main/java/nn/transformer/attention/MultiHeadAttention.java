@@ -1,6 +1,6 @@
 package nn.transformer.attention;
 
-import nn.core.Module;
+import nn.core.ActivationContext;
 import nn.core.Parameter;
 import nn.initializer.Initializer;
 import nn.layers.Linear;
@@ -11,13 +11,15 @@ import tensor.Tensor;
 import java.util.ArrayList;
 import java.util.List;
 
-public class MultiHeadAttention implements Module {
+public class MultiHeadAttention implements Attention {
 
     private final int d_model;
     private final int numHeads;
+    private final int d_inner;          // numHeads * d_h (== d_model unless this is a subset of heads)
     private final boolean isTrainable;
     private final double attnDropProb, outDropProb;
     private final boolean isCross;
+    private final boolean useFlash;
 
     // Self-Attention
     private Linear Wqkv;
@@ -25,32 +27,59 @@ public class MultiHeadAttention implements Module {
     private Linear Wq, Wkv, Wo;
     private double attnScale;
 
-    private Tensor Xq, Xkv, Qh, Kh, Vh, P, O;
-    private Tensor mask;
-    private Tensor attnDrop, outDrop;
+    // Forward activations (per ActivationContext)
+    private static final class Cache {
+        Tensor Xq, Xkv, Qh, Kh, Vh, P, O;
+        Tensor mask;
+        Tensor attnDrop, outDrop;
+
+        // Tiled attention : O(T) caches instead of P
+        Tensor Oh, lse;
+        double flashDropProb;
+        long flashDropSeed;
+    }
 
     public MultiHeadAttention(int d_model, int numHeads,
                               Initializer init,
                               boolean isTrainable,
                               double attnDropProb,
                               double outDropProb, boolean isCross) {
+        this(d_model, numHeads, init, isTrainable, attnDropProb, outDropProb, isCross, false);
+    }
+
+    public MultiHeadAttention(int d_model, int numHeads,
+                              Initializer init,
+                              boolean isTrainable,
+                              double attnDropProb,
+                              double outDropProb, boolean isCross, boolean useFlash) {
+        this(d_model, numHeads, d_model / numHeads, init, isTrainable, attnDropProb, outDropProb, isCross, useFlash);
+    }
+
+    // numHeads heads of size d_h (numHeads * d_h may be < d_model : one shard of ShardedMultiHeadAttention)
+    public MultiHeadAttention(int d_model, int numHeads, int d_h,
+                              Initializer init,
+                              boolean isTrainable,
+                              double attnDropProb,
+                              double outDropProb, boolean isCross, boolean useFlash) {
         this.d_model = d_model;
         this.numHeads = numHeads;
+        this.d_inner = numHeads * d_h;
         this.isTrainable = isTrainable;
         this.attnDropProb = attnDropProb;
         this.outDropProb = outDropProb;
         this.isCross = isCross;
+        this.useFlash = useFlash;
 
-        this.attnScale = Math.sqrt((double) d_model / numHeads);
+        this.attnScale = Math.sqrt(d_h);
 
         if(isCross) {
-            this.Wq = new Linear(d_model, d_model, init, isTrainable);
-            this.Wkv = new Linear(d_model, 2 * d_model, init, isTrainable);
+            this.Wq = new Linear(d_model, d_inner, init, isTrainable);
+            this.Wkv = new Linear(d_model, 2 * d_inner, init, isTrainable);
         } else {
-            this.Wqkv = new Linear(d_model, 3 * d_model, init, isTrainable);
+            this.Wqkv = new Linear(d_model, 3 * d_inner, init, isTrainable);
         }
 
-        this.Wo = new Linear(d_model, d_model, init, isTrainable);
+        this.Wo = new Linear(d_inner, d_model, init, isTrainable);
     }
 
     // Self-Attention : Xq == Xkv (w/o mask)
@@ -74,72 +103,160 @@ public class MultiHeadAttention implements Module {
         if(xs == null || xs.length != 3)
             throw new IllegalArgumentException("MHA expects (Xq, Xkv, mask), got : " + xs.length);
 
-        this.Xq = xs[0];      // [B, Tq, d]
-        this.Xkv = xs[1];    // [B, Tkv, d]
-        this.mask = xs[2];
+        Tensor Xq = xs[0];      // [B, Tq, d]
+        Tensor Xkv = xs[1];     // [B, Tkv, d]
+        Tensor mask = xs[2];
+
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.Xq = Xq; c.Xkv = Xkv; c.mask = mask;
 
         // Cross-Attention Q, K, V
-        Tensor Q, K, V;
+        Tensor Q, K, V, proj;
         if(isCross) {
             Tensor KV = Wkv.forward(Xkv, training);
             Q = Wq.forward(Xq, training);
-            K = KV.slice(-1, 0, d_model);
-            V = KV.slice(-1, d_model, 2 * d_model);
+            K = KV.slice(-1, 0, d_inner);
+            V = KV.slice(-1, d_inner, 2 * d_inner);
+            proj = KV;
         }
         // Self-Attention Q, K, V
         else {
             // Xq == Xkv
             Tensor X = Xq;
             Tensor QKV = Wqkv.forward(X, training);
-            Q = QKV.slice(-1, 0, d_model);
-            K = QKV.slice(-1, d_model, 2 * d_model);
-            V = QKV.slice(-1, 2 * d_model, 3 * d_model);
+            Q = QKV.slice(-1, 0, d_inner);
+            K = QKV.slice(-1, d_inner, 2 * d_inner);
+            V = QKV.slice(-1, 2 * d_inner, 3 * d_inner);
+            proj = QKV;
         }
+        ctx.discard(proj);      // Q, K, V are copies
 
         // Split heads Q, K, V into h heads : [B, h, T, d_h], where d_h = d_model / h
-        this.Qh = AttentionOps.splitHeads(Q, numHeads);
-        this.Kh = AttentionOps.splitHeads(K, numHeads);
-        this.Vh = AttentionOps.splitHeads(V, numHeads);
-
-        /* Compte attention by each head */
-        // Attention scores = QK^T/sqrt(d_k), d_k = d_model / numHeads
-        Tensor attnScores = AttentionOps.qkScores(Qh, Kh, attnScale);
-
-        // Apply attention mask (additive mask) + softmax (over last axis : -1) = logits
-        Tensor maskApplied = AttentionOps.applyMask(attnScores, mask);
-        this.P = AttentionOps.softmaxLast(maskApplied);     // [B, H, Tq, Tkv]
-
-        // Applying attention dropout
-        if(training) {
-            this.attnDrop = MaskUtils.dropoutMaskLike(P, attnDropProb);
-            this.P = P.mul(attnDrop);
+        Tensor Qh = AttentionOps.splitHeads(Q, numHeads);
+        Tensor Kh = AttentionOps.splitHeads(K, numHeads);
+        Tensor Vh = AttentionOps.splitHeads(V, numHeads);
+        c.Qh = Qh; c.Kh = Kh; c.Vh = Vh;
+
+        Tensor Oh;
+        if(useFlash) {
+            // Tiled attention : only per-row logsumexp [B, H, Tq, 1] is kept for backward
+            c.flashDropProb = training ? attnDropProb : 0.0;
+            c.flashDropSeed = (c.flashDropProb > 0.0) ? MaskUtils.newDropoutSeed() : 0L;
+
+            Tensor[] res = AttentionOps.flashForward(Qh, Kh, Vh, mask, attnScale,
+                    AttentionOps.FLASH_BLOCK, c.flashDropProb, c.flashDropSeed);
+            Oh = res[0];
+            c.lse = res[1];
+            ctx.discard(res[1]);
+            c.Oh = Oh;
+            c.P = null;
+            c.attnDrop = null;
+        } else {
+            /* Compte attention by each head */
+            // Attention scores = QK^T/sqrt(d_k), d_k = d_model / numHeads
+            Tensor attnScores = AttentionOps.qkScores(Qh, Kh, attnScale);
+
+            // Apply attention mask (additive mask) + softmax (over last axis : -1) = logits
+            Tensor maskApplied = AttentionOps.applyMask(attnScores, mask);
+            Tensor P = AttentionOps.softmaxLast(maskApplied);     // [B, H, Tq, Tkv]
+
+            // Applying attention dropout
+            if(training) {
+                c.attnDrop = MaskUtils.dropoutMaskLike(P, attnDropProb);
+                P.muli(c.attnDrop);
+            }
+            else c.attnDrop = null;
+            c.P = P;
+
+            // Attention(Q, K, V) : P * V
+            // [B, H, Tq, Tkv] x [B, H, Tkv, d_h] = [B, H, Tq, d_h]
+            Oh = P.matmul(Vh);
+            ctx.discard(attnScores, maskApplied, P);
         }
-        else this.attnDrop = null;
-
-        // Attention(Q, K, V) : P * V
-        // [B, H, Tq, Tkv] x [B, H, Tkv, d_h] = [B, H, Tq, d_h]
-        Tensor Oh = P.matmul(Vh);
 
         // Concat : H * [B, H, Tq, d_h] -> [B, Tq, H * d_vh]
-        this.O = AttentionOps.mergeHeads(Oh);
+        Tensor O = AttentionOps.mergeHeads(Oh);
+        c.O = O;
 
         // Applying Linear projection with Wo, Y = O x Wo : [B, Tq, d_model]
         Tensor Y = Wo.forward(O, training);
 
         // Applying Final dropout
         if(training) {
-            outDrop = MaskUtils.dropoutMaskLike(Y, outDropProb);
-            Y = Y.mul(outDrop);
-        } else outDrop = null;
+            c.outDrop = MaskUtils.dropoutMaskLike(Y, outDropProb);
+            Y.muli(c.outDrop);
+        } else c.outDrop = null;
 
+        // No-grad : everything above Y is freed now (views of Q, K, V go with them)
+        ctx.discard(Q, K, V, Oh, O);
         return Y;
     }
 
+    // Incremental attention : X [B, t, d_model] holds only the t newest positions (inference only).
+    // Self-attention : their K/V are appended to the cache and Q attends over every cached position.
+    // Cross-attention : cache already holds the projected encoder K/V (see precomputeKV()).
+    @Override
+    public Tensor forwardStep(Tensor X, KVCache cache, Tensor mask) {
+        ActivationContext ctx = ActivationContext.current();
+
+        Tensor Q;
+        if(isCross) {
+            Q = Wq.forward(X, false);
+        } else {
+            Tensor QKV = Wqkv.forward(X, false);
+            Q = QKV.slice(-1, 0, d_inner);
+            Tensor K = QKV.slice(-1, d_inner, 2 * d_inner);
+            Tensor V = QKV.slice(-1, 2 * d_inner, 3 * d_inner);
+
+            // append() copies into the cache buffers
+            cache.append(AttentionOps.splitHeads(K, numHeads), AttentionOps.splitHeads(V, numHeads));
+            ctx.discard(QKV, K, V);
+        }
+
+        // [B, H, t, d_h]
+        Tensor qh = AttentionOps.splitHeads(Q, numHeads);
+        int t = qh.size(-2);
+
+        // Self : only past positions are cached -> causal within the new chunk only, Cross : source pad mask
+        Tensor scores = AttentionOps.qkScores(qh, cache.keys(), attnScale);     // [B, H, t, L]
+        Tensor causal = (!isCross && t > 1) ? AttentionOps.applyMask(scores, MaskUtils.causalMaskWithCache(t, cache.length())) : scores;
+        Tensor masked = (mask != null) ? AttentionOps.applyMask(causal, mask) : causal;
+        Tensor p = AttentionOps.softmaxLast(masked);
+
+        // [B, H, t, L] x [B, H, L, d_h] -> [B, t, d_model]
+        Tensor ph = p.matmul(cache.values());
+        Tensor o = AttentionOps.mergeHeads(ph);
+        Tensor Y = Wo.forward(o, false);
+
+        ctx.discard(Q, scores, (causal != scores) ? causal : null, (masked != causal) ? masked : null, p, ph, o);
+        return Y;
+    }
+
+    // Cross-attention : projects Xkv [B, S, d_model] with Wkv once -> cache of [B, H, S, d_h]
+    @Override
+    public KVCache precomputeKV(Tensor Xkv) {
+        if(!isCross) throw new IllegalStateException("precomputeKV() expects cross-attention");
+
+        Tensor KV = Wkv.forward(Xkv, false);
+        Tensor K = KV.slice(-1, 0, d_inner);
+        Tensor V = KV.slice(-1, d_inner, 2 * d_inner);
+
+        KVCache cache = new KVCache(Xkv.size(1));
+        cache.append(AttentionOps.splitHeads(K, numHeads), AttentionOps.splitHeads(V, numHeads));
+        ActivationContext.current().discard(KV, K, V);
+
+        return cache;
+    }
+
     @Override
     public Tensor[] calcGradientsMany(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null) throw new IllegalStateException("MultiHeadAttention.calcGradientsMany() before forwardMany()");
+        Tensor Qh = c.Qh, Kh = c.Kh, Vh = c.Vh, P = c.P;
 
         // Final dropout
-        if(outDrop != null) dY = dY.mul(outDrop);
+        if(c.outDrop != null) dY = dY.mul(c.outDrop);
 
         // dY : [B, Tq, d_model] -> dO = dY x Wo^T
         Tensor dO = Wo.calcGradients(dY, accumulate, scale);
@@ -147,23 +264,31 @@ public class MultiHeadAttention implements Module {
         // Split gradients by H -> into each head
         Tensor dOh = AttentionOps.splitHeads(dO, numHeads); // [B, H, Tq, d_h]
 
-        // Oh = P x Vh
-        // dP = dOh x Vh^T, dVh = P^T x dOh
-        Tensor dP = dOh.matmul(Vh.transpose(-2, -1));   // [B, H, Tq, Tkv]
-        Tensor dVh = P.transpose(-2, -1).matmul(dOh);   // [B, H, Tkv, d_h]
-
-        // Attention dropout
-        if(attnDrop != null) dP = dP.mul(attnDrop);
-
-        // P = softmax(attnScores)
-        // dScore = (dP - sum(dP * P, axis=-1)) * P
-        Tensor sum = dP.mul(P).sum(-1, true);   // [B, H, Tq, 1]
-        Tensor dScore = dP.sub(sum).mul(P);                  // [B, H, Tq, Tkv]
-
-        // AttentionScore = (Qh x Kh^T)/attnScale + mask
-        // dQh = (dScore x Kh)/attnScale, dKh = (dScore^T x Qh)/attnScale
-        Tensor dQh = dScore.matmul(Kh).div(attnScale);                      // [B, H, Tq, d_h]
-        Tensor dKh = dScore.transpose(-2, -1).matmul(Qh).div(attnScale);    // [B, H, Tkv, d_h]
+        Tensor dQh, dKh, dVh;
+        if(useFlash) {
+            // Recomputes P block by block from the cached logsumexp
+            Tensor[] g = AttentionOps.flashBackward(dOh, Qh, Kh, Vh, c.Oh, c.lse, c.mask, attnScale,
+                    AttentionOps.FLASH_BLOCK, c.flashDropProb, c.flashDropSeed);
+            dQh = g[0]; dKh = g[1]; dVh = g[2];
+        } else {
+            // Oh = P x Vh
+            // dP = dOh x Vh^T, dVh = P^T x dOh
+            Tensor dP = dOh.matmul(Vh.transpose(-2, -1));   // [B, H, Tq, Tkv]
+            dVh = P.transpose(-2, -1).matmul(dOh);          // [B, H, Tkv, d_h]
+
+            // Attention dropout
+            if(c.attnDrop != null) dP = dP.mul(c.attnDrop);
+
+            // P = softmax(attnScores)
+            // dScore = (dP - sum(dP * P, axis=-1)) * P
+            Tensor sum = dP.mul(P).sum(-1, true);   // [B, H, Tq, 1]
+            Tensor dScore = dP.sub(sum).mul(P);                  // [B, H, Tq, Tkv]
+
+            // AttentionScore = (Qh x Kh^T)/attnScale + mask
+            // dQh = (dScore x Kh)/attnScale, dKh = (dScore^T x Qh)/attnScale
+            dQh = dScore.matmul(Kh).div(attnScale);                      // [B, H, Tq, d_h]
+            dKh = dScore.transpose(-2, -1).matmul(Qh).div(attnScale);    // [B, H, Tkv, d_h]
+        }
 
         // Merge heads
         // dQ : [B, Tq, d_model], dK, dV : [B, Tkv, d_model]
@@ -230,5 +355,6 @@ public class MultiHeadAttention implements Module {
         } else Wqkv.zeroGrad();
 
         Wo.zeroGrad();
+        ActivationContext.current().evict(this);
     }
 }
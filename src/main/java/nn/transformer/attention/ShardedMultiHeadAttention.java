@@ -0,0 +1,185 @@
+package nn.transformer.attention;
+
+import nn.core.ActivationContext;
+import nn.core.Parameter;
+import nn.distributed.ShardPool;
+import nn.initializer.Initializer;
+import nn.optimizer.Optimizer;
+import nn.transformer.mask.MaskUtils;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Multi-head attention with its heads split into numShards groups, one per thread (tensor parallelism).
+ * Shard i is a MultiHeadAttention over its heads only : Q/K/V projections to its own heads (column slice)
+ * and Wo from its heads (row slice), so shard outputs are partial sums of the full output :
+ *   Y = sum_i Attn_i(Xq, Xkv) Wo_i        dXq = sum_i dXq_i,  dXkv = sum_i dXkv_i
+ * Output dropout is applied once, to the sum. Weights are initialized per shard.
+ * Dropout masks of the shards (attention probabilities) come from per-shard seeds drawn on the calling thread,
+ * so a MaskUtils.dropoutScope() of the caller (checkpointed recompute) reproduces them.
+ * Incremental decoding : shard i reads / appends heads [headOffsets[i], headOffsets[i + 1]) of the layer's
+ * KVCache, which holds all heads as for MultiHeadAttention.
+ */
+public class ShardedMultiHeadAttention implements Attention {
+
+    private final MultiHeadAttention[] shards;
+    private final int[] headOffsets;            // Heads of shard i : [headOffsets[i], headOffsets[i + 1])
+    private final int numHeads, d_h;
+    private final ShardPool pool;
+    private final boolean isTrainable, isCross;
+    private final double outDropProb;
+
+    // Shard activations live in child contexts, one per shard (per ActivationContext)
+    private static final class Cache {
+        ActivationContext[] shardCtx;
+        Tensor outDrop;
+    }
+
+    public ShardedMultiHeadAttention(int d_model, int numHeads,
+                                     Initializer init,
+                                     boolean isTrainable,
+                                     double attnDropProb,
+                                     double outDropProb, boolean isCross, boolean useFlash,
+                                     int numShards, ShardPool pool) {
+        if(d_model % numHeads != 0) throw new IllegalArgumentException("d_model is not divisible by numHeads");
+        if(numShards < 1 || numShards > numHeads)
+            throw new IllegalArgumentException("numShards must be in [1, " + numHeads + "] : " + numShards);
+
+        this.pool = pool;
+        this.isTrainable = isTrainable;
+        this.isCross = isCross;
+        this.outDropProb = outDropProb;
+        this.shards = new MultiHeadAttention[numShards];
+        this.headOffsets = new int[numShards + 1];
+        this.numHeads = numHeads;
+        this.d_h = d_model / numHeads;
+
+        for(int i=0;i<=numShards;i++) headOffsets[i] = numHeads * i / numShards;
+        for(int i=0;i<numShards;i++) {
+            int heads = headOffsets[i + 1] - headOffsets[i];
+            shards[i] = new MultiHeadAttention(d_model, heads, d_h, init, isTrainable, attnDropProb, 0.0, isCross, useFlash);
+        }
+    }
+
+    @Override
+    public Tensor forward(Tensor X, boolean training) {
+        throw new IllegalArgumentException("Self MHA expects (X, mask)");
+    }
+
+    @Override
+    public Tensor forwardMany(boolean training, Tensor... xs) {
+        if(xs == null || xs.length != 3)
+            throw new IllegalArgumentException("MHA expects (Xq, Xkv, mask), got : " + xs.length);
+
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.shardCtx = new ActivationContext[shards.length];
+        for(int i=0;i<shards.length;i++) c.shardCtx[i] = ctx.fork();
+
+        // Shards' dropout seeds : drawn here, in the caller's dropout scope (worker threads have none)
+        long[] seeds = new long[shards.length];
+        if(training) for(int i=0;i<shards.length;i++) seeds[i] = MaskUtils.newDropoutSeed();
+
+        // Partial outputs [B, Tq, d_model] -> reduction
+        List<Tensor> partial = pool.map(shards.length, i -> c.shardCtx[i].call(() -> {
+            if(!training) return shards[i].forwardMany(false, xs);
+            try(MaskUtils.DropoutScope ignored = MaskUtils.dropoutScope(seeds[i])) {
+                return shards[i].forwardMany(true, xs);
+            }
+        }));
+        Tensor Y = sum(partial);
+
+        if(training) {
+            c.outDrop = MaskUtils.dropoutMaskLike(Y, outDropProb);
+            Y.muli(c.outDrop);
+        } else c.outDrop = null;
+
+        return Y;
+    }
+
+    @Override
+    public Tensor[] calcGradientsMany(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null || c.shardCtx == null)
+            throw new IllegalStateException("ShardedMultiHeadAttention.calcGradientsMany() before forwardMany()");
+
+        Tensor dYd = (c.outDrop != null) ? dY.mul(c.outDrop) : dY;
+        List<Tensor[]> grads = pool.map(shards.length,
+                i -> c.shardCtx[i].call(() -> shards[i].calcGradientsMany(dYd, accumulate, scale)));
+
+        List<Tensor> dXq = new ArrayList<>(), dXkv = new ArrayList<>();
+        for(Tensor[] g : grads) {
+            dXq.add(g[0]);
+            if(isCross) dXkv.add(g[1]);
+        }
+
+        return new Tensor[]{ sum(dXq), isCross ? sum(dXkv) : null };
+    }
+
+    @Override
+    public Tensor forwardStep(Tensor X, KVCache cache, Tensor mask) {
+        // Self : shards append their heads' K/V through views, the cache then moves by t positions at once
+        if(!isCross) cache.reserve(X.size(0), numHeads, d_h, X.getNDArray().dataType());
+        KVCache[] views = new KVCache[shards.length];
+        for(int i=0;i<shards.length;i++) views[i] = cache.heads(headOffsets[i], headOffsets[i + 1]);
+
+        ActivationContext ctx = ActivationContext.current();
+        List<Tensor> partial = pool.map(shards.length,
+                i -> ctx.fork().call(() -> shards[i].forwardStep(X, views[i], mask)));
+        if(!isCross) cache.advance(X.size(1));
+
+        return sum(partial);
+    }
+
+    @Override
+    public KVCache precomputeKV(Tensor Xkv) {
+        if(!isCross) throw new IllegalStateException("precomputeKV() expects cross-attention");
+
+        ActivationContext ctx = ActivationContext.current();
+        List<KVCache> parts = pool.map(shards.length, i -> ctx.fork().call(() -> shards[i].precomputeKV(Xkv)));
+
+        KVCache out = KVCache.concatHeads(parts.toArray(new KVCache[0]));
+        for(KVCache part : parts) part.release();
+        return out;
+    }
+
+    private static Tensor sum(List<Tensor> parts) {
+        if(parts.size() == 1) return parts.get(0);
+
+        // First add allocates the result, the rest accumulate into it
+        Tensor acc = parts.get(0).add(parts.get(1));
+        for(int i=2;i<parts.size();i++) acc.addi(parts.get(i));
+
+        return acc;
+    }
+
+    @Override
+    public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        throw new UnsupportedOperationException("Use calcGradientsMany()");
+    }
+
+    @Override
+    public void update(Optimizer optimizer) {
+        if(isTrainable) for(MultiHeadAttention shard : shards) shard.update(optimizer);
+    }
+
+    @Override
+    public List<Parameter> parameters() {
+        List<Parameter> ps = new ArrayList<>();
+        for(MultiHeadAttention shard : shards) ps.addAll(shard.parameters());
+
+        return ps;
+    }
+
+    @Override
+    public void zeroGrad() {
+        for(MultiHeadAttention shard : shards) shard.zeroGrad();
+        ActivationContext.current().evict(this);
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+}
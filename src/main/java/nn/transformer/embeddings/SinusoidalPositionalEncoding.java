@@ -37,14 +37,34 @@ public class SinusoidalPositionalEncoding {
 
     // X : [B, T, d] -> X + PE[:T]
     public Tensor apply(Tensor X) {
+        return apply(X, 0);
+    }
+
+    // X : [B, T, d] -> X + PE[offset : offset + T] (incremental decoding)
+    public Tensor apply(Tensor X, int offset) {
         int T = X.size(1);
 
-        if(T > maxLength) throw new IllegalArgumentException("T("+T+") > maxLength("+maxLength+")");
+        if(offset + T > maxLength) throw new IllegalArgumentException("T("+(offset + T)+") > maxLength("+maxLength+")");
 
-        INDArray pos = table.getNDArray().get(interval(0, T), all());           // [T, d]
+        INDArray pos = table.getNDArray().get(interval(offset, offset + T), all());           // [T, d]
         INDArray bCastPos = pos.reshape('c', 1, T, d_model);    // [1, T, d]
 
         return X.add(new Tensor(bCastPos));
     }
 
+    // X : [B, 1, d] -> X[b] + PE[positions[b]] (rows at different positions)
+    public Tensor apply(Tensor X, int[] positions) {
+        int B = X.size(0);
+        if(X.size(1) != 1 || positions.length != B)
+            throw new IllegalArgumentException("Per-row positions expect X : [B, 1, d] and B positions");
+
+        for(int p : positions) {
+            if(p < 0 || p >= maxLength) throw new IllegalArgumentException("position("+p+") out of [0, maxLength("+maxLength+"))");
+        }
+
+        INDArray pos = Nd4j.pullRows(table.getNDArray(), 1, positions);       // [B, d]
+
+        return X.add(new Tensor(pos.reshape('c', B, 1, d_model)));
+    }
+
 }
@@ -1,5 +1,6 @@
 package nn.transformer.embeddings;
 
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.initializer.Initializer;
@@ -21,10 +22,12 @@ public class TokenEmbeddings implements Module {
     private final boolean isTrainable;
     private final double embDropProb;
 
-    /* Caches */
-    private int B, T;
-    private int[] flatIds;
-    private Tensor cEmbDrop;
+    /* Caches (per ActivationContext) */
+    private static final class Cache {
+        int B, T;
+        int[] flatIds;
+        Tensor cEmbDrop;
+    }
 
     public TokenEmbeddings(int vocabSize, int d_model, int padId, Initializer eInit, boolean isTrainable, double embDropProb) {
         this.vocabSize = vocabSize; this.d_model = d_model; this.padId = padId;
@@ -39,8 +42,8 @@ public class TokenEmbeddings implements Module {
     public Tensor forward(Tensor X, boolean training) {
         if(X.ndim() != 2) throw new IllegalArgumentException("TokenEmbeddings.forward expects ids of shape [B, T]");
 
-        this.B = X.size(0);
-        this.T = X.size(1);
+        int B = X.size(0);
+        int T = X.size(1);
 
         // Flatten ids -> int[]
         Tensor flattedX = X.reshape('c', B * T);
@@ -56,7 +59,9 @@ public class TokenEmbeddings implements Module {
                 ids[i] = (int) flat.getDouble(i);
             }
         }
-        this.flatIds = ids;
+        Cache c = ActivationContext.current().cache(this, Cache::new);
+        c.B = B; c.T = T;
+        c.flatIds = ids;
 
         // Assign table's row for each token : [B*T, d]
         INDArray rows = Nd4j.pullRows(E.getData().getNDArray(), 0, ids);
@@ -68,9 +73,9 @@ public class TokenEmbeddings implements Module {
         Tensor out = new Tensor(rows.reshape('c', B, T, d_model));
 
         if(training) {
-            cEmbDrop = MaskUtils.dropoutMaskLike(out, embDropProb);
-            out = out.mul(cEmbDrop);
-        } else cEmbDrop = null;
+            c.cEmbDrop = MaskUtils.dropoutMaskLike(out, embDropProb);
+            out.muli(c.cEmbDrop);
+        } else c.cEmbDrop = null;
 
         return out;
     }
@@ -79,35 +84,38 @@ public class TokenEmbeddings implements Module {
     // return : There are no prev layers -> return [B, T] zeros
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null) throw new IllegalStateException("TokenEmbeddings.calcGradients() before forward()");
+        int B = c.B, T = c.T;
+        int[] flatIds = c.flatIds;
+
+        if(c.cEmbDrop != null) dY = dY.mul(c.cEmbDrop);
 
-        if(cEmbDrop != null) dY = dY.mul(cEmbDrop);
+        // 3) forward에서 사용한 스케일(있다면) 반영 : 한 번에 (행마다 새 배열을 만들지 않음)
+        final double s = scale * this.scale; // this.scale 예: sqrt(d_model)
+        if (s != 1.0) dY = dY.mul(s);
 
         INDArray dYArr = dY.getNDArray().reshape('c', B * T, d_model);  // [B*T, d]
 
-        // 3) grad 버퍼 준비: gNew:[d, V] (항상 새 버퍼에 누적 → 마지막에 set/add)
+        // 4) grad 버퍼: E의 영구 버퍼 [d, V]에 직접 누적 (accumulate가 아니면 제자리에서 0으로)
         Tensor Edata = E.getData();
         if (Edata.size(0) != d_model) {
             throw new IllegalStateException("Embedding shape mismatch: E is [d,V] with d="
                     + Edata.size(0) + " but d_model=" + d_model);
         }
 
-        Tensor gNewTensor = Tensor.zeros(Edata.shape());
-        INDArray gNew = gNewTensor.getNDArray();
-
-        // 4) forward에서 사용한 스케일(있다면) 반영
-        final double s = scale * this.scale; // this.scale 예: sqrt(d_model)
+        INDArray gNew = E.gradBuffer(accumulate).getNDArray();
 
         // 5) scatter-add: 각 토큰 id 열에 dY를 누적 (PAD 제외)
         for (int i = 0; i < flatIds.length; i++) {
             int id = flatIds[i];
             if (id == padId) continue; // PAD는 스킵
 
-            // src: dY2[i,:]  -> [1,d] → [d,1] (열벡터). mul(s)는 새 배열을 만듭니다(원본 오염 방지).
+            // src: dY2[i,:]  -> [1,d] → [d,1] (열벡터, 뷰)
             INDArray srcRow = dYArr.get(
                     NDArrayIndex.point(i),
                     NDArrayIndex.all());             // [1, d]
             INDArray srcCol = srcRow.reshape(d_model, 1);                      // [d, 1]
-            if (s != 1.0) srcCol = srcCol.mul(s);                              // [d, 1]
 
             // 대상 열 뷰: rank-2 [d,1]로 유지하려면 'interval'을 사용!
             INDArray colView = gNew.get(
@@ -118,13 +126,6 @@ public class TokenEmbeddings implements Module {
             colView.addi(srcCol); // [d,1] += [d,1]
         }
 
-        // 6) grad 적용
-        if (accumulate && E.getGrad() != null) {
-            E.addGrad(new Tensor(gNew)); // 기존 grad += gNew
-        } else {
-            E.setGrad(new Tensor(gNew)); // grad = gNew
-        }
-
         // no prev layers : return zeros
         return Tensor.zeros(B, T);
     }
@@ -142,5 +143,6 @@ public class TokenEmbeddings implements Module {
     @Override
     public void zeroGrad() {
         E.zeroGrad();
+        ActivationContext.current().evict(this);
     }
 }
@@ -0,0 +1,15 @@
+package nn.transformer.logits;
+
+public class BannedTokens implements LogitsProcessor {
+
+    private final int[] banned;
+
+    public BannedTokens(int... banned) {
+        this.banned = banned.clone();
+    }
+
+    @Override
+    public void process(double[] logits, int[] history, int tLen) {
+        for(int id : banned) logits[id] = Double.NEGATIVE_INFINITY;
+    }
+}
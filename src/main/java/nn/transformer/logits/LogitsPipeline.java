@@ -0,0 +1,98 @@
+package nn.transformer.logits;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Processor chain + token choice over one row of logits.
+ * The row is copied once into a reused buffer, processors run in place on it, and the token is picked by
+ * argmax (greedy) or by sampling from softmax(buffer). No per-step allocation proportional to V.
+ */
+public class LogitsPipeline {
+
+    private final List<LogitsProcessor> processors = new ArrayList<>();
+    private final Random rnd;
+    private double[] buffer = new double[0];
+
+    // rnd == null : greedy (argmax)
+    public LogitsPipeline(Random rnd) {
+        this.rnd = rnd;
+    }
+
+    public static LogitsPipeline greedy() {
+        return new LogitsPipeline(null);
+    }
+
+    public static LogitsPipeline sampling(long seed) {
+        return new LogitsPipeline(new Random(seed));
+    }
+
+    public LogitsPipeline add(LogitsProcessor processor) {
+        processors.add(processor);
+        return this;
+    }
+
+    public LogitsPipeline addAll(LogitsPipeline other) {
+        processors.addAll(other.processors);
+        return this;
+    }
+
+    // Same choice rule (and random source), no processors
+    public LogitsPipeline copyEmpty() {
+        return new LogitsPipeline(rnd);
+    }
+
+    // logits : row-major [..., V], row : index of the V-sized row to use
+    public int next(Tensor logits, int row, int[] history, int tLen) {
+        double[] l = load(logits.getNDArray(), row);
+        for(LogitsProcessor p : processors) p.process(l, history, tLen);
+
+        return (rnd == null) ? argmax(l) : sample(l);
+    }
+
+    private double[] load(INDArray a, int row) {
+        int V = (int) a.size(-1);
+        if(buffer.length != V) buffer = new double[V];
+
+        long base = (long) row * V;
+        if(a.ordering() == 'c' && a.elementWiseStride() == 1) {
+            DataBuffer data = a.data();
+            long off = a.offset() + base;
+            for(int i=0;i<V;i++) buffer[i] = data.getDouble(off + i);
+        } else {
+            for(int i=0;i<V;i++) buffer[i] = a.getDouble(base + i);
+        }
+
+        return buffer;
+    }
+
+    private static int argmax(double[] l) {
+        int best = 0;
+        for(int i=1;i<l.length;i++) if(l[i] > l[best]) best = i;
+        return best;
+    }
+
+    // Multinomial draw from softmax(l) : two passes, no normalized copy
+    private int sample(double[] l) {
+        double max = Double.NEGATIVE_INFINITY;
+        for(double v : l) if(v > max) max = v;
+
+        double sum = 0.0;
+        for(double v : l) sum += Math.exp(v - max);
+
+        double u = rnd.nextDouble() * sum;
+        int last = -1;
+        for(int i=0;i<l.length;i++) {
+            if(l[i] == Double.NEGATIVE_INFINITY) continue;
+            last = i;
+            u -= Math.exp(l[i] - max);
+            if(u <= 0.0) return i;
+        }
+        return last;
+    }
+}
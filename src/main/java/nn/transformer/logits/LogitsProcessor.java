@@ -0,0 +1,8 @@
+package nn.transformer.logits;
+
+public interface LogitsProcessor {
+
+    // In-place on one row of logits [V]. history[0, tLen) : tokens so far (BOS included)
+    void process(double[] logits, int[] history, int tLen);
+
+}
@@ -0,0 +1,18 @@
+package nn.transformer.logits;
+
+// No EOS while tLen <= minLength (prevents empty / too short outputs)
+public class MinLength implements LogitsProcessor {
+
+    private final int eosId;
+    private final int minLength;
+
+    public MinLength(int eosId, int minLength) {
+        this.eosId = eosId;
+        this.minLength = minLength;
+    }
+
+    @Override
+    public void process(double[] logits, int[] history, int tLen) {
+        if(tLen <= minLength) logits[eosId] = Double.NEGATIVE_INFINITY;
+    }
+}
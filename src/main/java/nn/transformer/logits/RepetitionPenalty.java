@@ -0,0 +1,36 @@
+package nn.transformer.logits;
+
+// Already generated tokens : logit > 0 -> logit / penalty, logit <= 0 -> logit * penalty (once per distinct token)
+public class RepetitionPenalty implements LogitsProcessor {
+
+    private final double penalty;
+    private final int fromIndex;
+    private boolean[] seen = new boolean[0];
+
+    // fromIndex : history positions before it are not penalized (e.g. 1 to skip BOS)
+    public RepetitionPenalty(double penalty, int fromIndex) {
+        if(penalty <= 0.0) throw new IllegalArgumentException("penalty must be > 0");
+        this.penalty = penalty;
+        this.fromIndex = fromIndex;
+    }
+
+    public RepetitionPenalty(double penalty) {
+        this(penalty, 1);
+    }
+
+    @Override
+    public void process(double[] logits, int[] history, int tLen) {
+        if(seen.length != logits.length) seen = new boolean[logits.length];
+
+        for(int i=fromIndex;i<tLen;i++) {
+            int id = history[i];
+            if(seen[id]) continue;
+            seen[id] = true;
+
+            logits[id] = (logits[id] > 0.0) ? logits[id] / penalty : logits[id] * penalty;
+        }
+
+        // Clear only what was marked : O(tLen), not O(V)
+        for(int i=fromIndex;i<tLen;i++) seen[history[i]] = false;
+    }
+}
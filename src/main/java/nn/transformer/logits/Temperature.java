@@ -0,0 +1,17 @@
+package nn.transformer.logits;
+
+public class Temperature implements LogitsProcessor {
+
+    private final double invTemperature;
+
+    public Temperature(double temperature) {
+        if(temperature <= 0.0) throw new IllegalArgumentException("temperature must be > 0");
+        this.invTemperature = 1.0 / temperature;
+    }
+
+    @Override
+    public void process(double[] logits, int[] history, int tLen) {
+        if(invTemperature == 1.0) return;
+        for(int i=0;i<logits.length;i++) logits[i] *= invTemperature;
+    }
+}
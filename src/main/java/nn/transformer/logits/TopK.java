@@ -0,0 +1,49 @@
+package nn.transformer.logits;
+
+// Keeps the k largest logits : k-th largest found by quickselect (average O(V), no sort)
+public class TopK implements LogitsProcessor {
+
+    private final int k;
+    private double[] scratch = new double[0];
+
+    public TopK(int k) {
+        if(k <= 0) throw new IllegalArgumentException("k must be > 0");
+        this.k = k;
+    }
+
+    @Override
+    public void process(double[] logits, int[] history, int tLen) {
+        int V = logits.length;
+        if(k >= V) return;
+
+        if(scratch.length != V) scratch = new double[V];
+        System.arraycopy(logits, 0, scratch, 0, V);
+
+        // k-th largest == (V - k)-th smallest
+        double threshold = select(scratch, V - k);
+
+        // Ties at the threshold may keep a few more than k
+        for(int i=0;i<V;i++) if(logits[i] < threshold) logits[i] = Double.NEGATIVE_INFINITY;
+    }
+
+    // Hoare-style quickselect : a[idx] after partial ordering
+    private static double select(double[] a, int idx) {
+        int lo = 0, hi = a.length - 1;
+        while(lo < hi) {
+            double pivot = a[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while(i <= j) {
+                while(a[i] < pivot) i++;
+                while(a[j] > pivot) j--;
+                if(i <= j) {
+                    double t = a[i]; a[i] = a[j]; a[j] = t;
+                    i++; j--;
+                }
+            }
+            if(idx <= j) hi = j;
+            else if(idx >= i) lo = i;
+            else return a[idx];
+        }
+        return a[idx];
+    }
+}
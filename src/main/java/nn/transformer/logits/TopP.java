@@ -0,0 +1,70 @@
+package nn.transformer.logits;
+
+// Nucleus filtering : keeps the smallest set of most probable tokens whose probability mass reaches p.
+// Finite logits go into a max-heap and are popped only until the mass is reached (no full sort).
+public class TopP implements LogitsProcessor {
+
+    private final double p;
+    private int[] heap = new int[0];
+    private boolean[] keep = new boolean[0];
+
+    public TopP(double p) {
+        if(p <= 0.0 || p > 1.0) throw new IllegalArgumentException("p must be in (0, 1]");
+        this.p = p;
+    }
+
+    @Override
+    public void process(double[] logits, int[] history, int tLen) {
+        int V = logits.length;
+        if(p >= 1.0) return;
+        if(heap.length != V) {
+            heap = new int[V];
+            keep = new boolean[V];
+        }
+
+        // Softmax normalizer over finite logits
+        double max = Double.NEGATIVE_INFINITY;
+        for(double l : logits) if(l > max) max = l;
+        if(max == Double.NEGATIVE_INFINITY) return;
+
+        double sum = 0.0;
+        int n = 0;
+        for(int i=0;i<V;i++) {
+            if(logits[i] == Double.NEGATIVE_INFINITY) continue;
+            sum += Math.exp(logits[i] - max);
+            heap[n++] = i;
+        }
+
+        // Build max-heap by logit, then pop until mass >= p
+        for(int i=n/2-1;i>=0;i--) siftDown(logits, i, n);
+
+        double mass = 0.0;
+        int kept = 0;
+        while(n > 0 && mass < p) {
+            int top = heap[0];
+            keep[top] = true;
+            kept++;
+            mass += Math.exp(logits[top] - max) / sum;
+
+            heap[0] = heap[--n];
+            siftDown(logits, 0, n);
+        }
+
+        for(int i=0;i<V;i++) {
+            if(keep[i]) keep[i] = false;
+            else logits[i] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private void siftDown(double[] logits, int i, int n) {
+        while(true) {
+            int l = 2 * i + 1, r = l + 1, best = i;
+            if(l < n && logits[heap[l]] > logits[heap[best]]) best = l;
+            if(r < n && logits[heap[r]] > logits[heap[best]]) best = r;
+            if(best == i) return;
+
+            int t = heap[i]; heap[i] = heap[best]; heap[best] = t;
+            i = best;
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package nn.transformer.mask;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.random.impl.BernoulliDistribution;
+import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.ops.transforms.Transforms;
 import tensor.Tensor;
 
+import java.util.Arrays;
+
 import static org.nd4j.linalg.indexing.NDArrayIndex.*;
 
 public class MaskUtils {
 
     public static final double NEG_INF = -1e4;
 
+    // Generator of the current dropoutScope() on this thread (none : global RNG)
+    private static final ThreadLocal<Random> DROPOUT_RNG = new ThreadLocal<>();
+
     // Causal mask : [1, 1, T, T] -> Batch broadcastable
     public static Tensor causalMask(int T) {
         INDArray m = Nd4j.valueArrayOf(new long[]{1, 1, T, T}, 0.0);
@@ -51,6 +58,27 @@ public class MaskUtils {
         return new Tensor(m);
     }
 
+    // Causal mask for Tq new queries appended after (Tk - Tq) cached keys : [1, 1, Tq, Tk]
+    public static Tensor causalMaskWithCache(int Tq, int Tk) {
+        int offset = Tk - Tq;
+        INDArray m = Nd4j.valueArrayOf(new long[]{1, 1, Tq, Tk}, 0.0);
+        for(int i=0;i<Tq;i++) {
+            if(offset + i + 1 < Tk) m.get(point(0), point(0), point(i), interval(offset + i + 1, Tk)).assign(NEG_INF);
+        }
+        return new Tensor(m);
+    }
+
+    // Hides keys before each row's start : [B, 1, 1, Tk] (rows that joined a shared KV cache late)
+    public static Tensor keyStartMask(int[] starts, int Tk) {
+        int B = starts.length;
+        INDArray m = Nd4j.valueArrayOf(new long[]{B, 1, 1, Tk}, 0.0);
+        for(int b=0;b<B;b++) {
+            int s = Math.min(starts[b], Tk);
+            if(s > 0) m.get(point(b), all(), all(), interval(0, s)).assign(NEG_INF);
+        }
+        return new Tensor(m);
+    }
+
     /**
      * Pad mask from key length : [B, Tq, Tk]
      * @param keyLens is valid lengths per each sequence on batch.
@@ -73,14 +101,78 @@ public class MaskUtils {
         return new Tensor(m);
     }
 
-    // Dropout mask (inverted) : keep = 1-p, keep -> 1/(1-p), drop -> 0
+    // Dropout mask (inverted) : keep = 1-p, keep -> 1/(1-p), drop -> 0. Inside a dropoutScope() : drawn from its generator
     public static Tensor dropoutMaskLike(Tensor X, double dropProb) {
         if(dropProb <= 0.0) return Tensor.ones(X.shape());
         if(dropProb >= 1.0) return Tensor.zeros(X.shape());
 
         double keep = 1.0 - dropProb;
+        Random scoped = DROPOUT_RNG.get();
+        if(scoped != null) return bernoulliMask(X.shape(), keep, scoped);
+
+        return Tensor.randomBernoulli(keep, X.shape()).divi(keep);
+    }
+
+    // Dropout mask reproducible from seed (re-generated in backward by tiled attention).
+    // Drawn from a generator of its own : the global RNG (every other dropout mask) is not touched
+    public static Tensor dropoutMaskLike(Tensor X, double dropProb, long seed) {
+        if(dropProb <= 0.0) return Tensor.ones(X.shape());
+        if(dropProb >= 1.0) return Tensor.zeros(X.shape());
+
+        Random rng = Nd4j.getRandomFactory().getNewRandomInstance(seed);
+        try {
+            return bernoulliMask(X.shape(), 1.0 - dropProb, rng);
+        } finally {
+            close(rng);
+        }
+    }
+
+    // Inverted dropout mask from rng : 1/keep with probability keep, 0 otherwise
+    private static Tensor bernoulliMask(int[] shape, double keep, Random rng) {
+        INDArray z = Nd4j.createUninitialized(Arrays.stream(shape).asLongStream().toArray());
+        Nd4j.getExecutioner().exec(new BernoulliDistribution(z, keep), rng);
+
+        return new Tensor(z.divi(keep));
+    }
 
-        return Tensor.randomBernoulli(keep, X.shape()).div(keep);
+    private static void close(Random rng) {
+        try {
+            rng.close();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not release a dropout RNG", e);
+        }
+    }
+
+    public static long newDropoutSeed() {
+        Random scoped = DROPOUT_RNG.get();
+        return (scoped != null) ? scoped.nextLong() : Nd4j.getRandom().nextLong();
+    }
+
+    /*
+     * Dropout scope (re-run of a checkpointed block) : until close(), every dropout mask and dropout seed drawn on
+     * this thread comes from a generator of its own seeded with seed, so the same seed gives the same masks.
+     * The global RNG is neither read nor reseeded. Scopes nest : close() restores the enclosing one.
+     */
+    public static DropoutScope dropoutScope(long seed) {
+        return new DropoutScope(Nd4j.getRandomFactory().getNewRandomInstance(seed));
+    }
+
+    public static final class DropoutScope implements AutoCloseable {
+        private final Random rng;
+        private final Random enclosing;
+
+        private DropoutScope(Random rng) {
+            this.rng = rng;
+            this.enclosing = DROPOUT_RNG.get();
+            DROPOUT_RNG.set(rng);
+        }
+
+        @Override
+        public void close() {
+            if(enclosing == null) DROPOUT_RNG.remove();
+            else DROPOUT_RNG.set(enclosing);
+            MaskUtils.close(rng);
+        }
     }
 
     // For use in Loss calculation, except PAD tokens
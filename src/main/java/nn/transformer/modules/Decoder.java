@@ -1,24 +1,40 @@
 package nn.transformer.modules;
 
 import nn.activation.GELU;
+import nn.core.ActivationContext;
+import nn.core.GradientListener;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.initializer.HeNormal;
 import nn.initializer.XavierNormal;
 import nn.optimizer.Optimizer;
+import nn.transformer.attention.Attention;
+import nn.transformer.attention.KVCache;
 import nn.transformer.attention.MultiHeadAttention;
+import nn.transformer.mask.MaskUtils;
+import org.nd4j.linalg.factory.Nd4j;
 import tensor.Tensor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.function.Supplier;
 
 public class Decoder implements Module {
 
     private final DecoderBlock[] decoderBlocks;
     private final boolean isTrainable;
+    private final boolean checkpointing;
+    private final SplittableRandom dropoutSeeds;    // Checkpointed blocks' dropout seeds (global RNG is never reseeded)
+    private GradientListener gradientListener;
 
-    private Tensor encOut;  // Last EncoderBlock's output
+    // Last EncoderBlock's output, and with checkpointing block inputs + dropout seeds (per ActivationContext)
+    private static final class Cache {
+        Tensor encOut;
+        Tensor[] inputs;
+        long[] seeds;
+        Tensor selfMask, crossMask;
+    }
 
     public Decoder(int d_model,
                    int d_hidden,
@@ -28,22 +44,49 @@ public class Decoder implements Module {
                    boolean isTrainable,
                    double mhaDropProb,
                    double ffnDropProb) {
+        this(d_model, d_hidden, numHeads, numDecoders, norm, isTrainable, mhaDropProb, ffnDropProb, false);
+    }
+
+    // checkpointing : see Encoder
+    public Decoder(int d_model,
+                   int d_hidden,
+                   int numHeads,
+                   int numDecoders,
+                   Supplier<? extends Module> norm,
+                   boolean isTrainable,
+                   double mhaDropProb,
+                   double ffnDropProb,
+                   boolean checkpointing) {
+        this(numDecoders, norm,
+                () -> new MultiHeadAttention(d_model, numHeads, new XavierNormal(), isTrainable, mhaDropProb, mhaDropProb, false),
+                () -> new MultiHeadAttention(d_model, numHeads, new XavierNormal(), isTrainable, mhaDropProb, mhaDropProb, true),
+                () -> new FeedForwardNetwork(d_model, d_hidden, new GELU(true), new XavierNormal(), new HeNormal(), isTrainable, ffnDropProb),
+                isTrainable, checkpointing);
+    }
+
+    // Blocks from the given layers (crossAttention : isCross), see Encoder
+    public Decoder(int numDecoders,
+                   Supplier<? extends Module> norm,
+                   Supplier<? extends Attention> selfAttention,
+                   Supplier<? extends Attention> crossAttention,
+                   Supplier<FeedForwardNetwork> ffn,
+                   boolean isTrainable,
+                   boolean checkpointing) {
         this.decoderBlocks = new DecoderBlock[numDecoders];
         this.isTrainable = isTrainable;
+        this.checkpointing = checkpointing;
+        this.dropoutSeeds = new SplittableRandom(Nd4j.getRandom().nextLong());
 
         for(int i=0;i<numDecoders;i++) {
-            decoderBlocks[i] = new DecoderBlock(
-                    norm.get(),
-                    norm.get(),
-                    norm.get(),
-                    new MultiHeadAttention(d_model, numHeads, new XavierNormal(), isTrainable, mhaDropProb, mhaDropProb, false),
-                    new MultiHeadAttention(d_model, numHeads, new XavierNormal(), isTrainable, mhaDropProb, mhaDropProb, true),
-                    new FeedForwardNetwork(d_model, d_hidden, new GELU(true), new XavierNormal(), new HeNormal(), isTrainable, ffnDropProb),
-                    isTrainable
-            );
+            decoderBlocks[i] = new DecoderBlock(norm.get(), norm.get(), norm.get(),
+                    selfAttention.get(), crossAttention.get(), ffn.get(), isTrainable);
         }
     }
 
+    private synchronized long nextDropoutSeed() {
+        return dropoutSeeds.nextLong();
+    }
+
     @Override
     public Tensor forward(Tensor X, boolean training) {
         throw new UnsupportedOperationException("Decoder expects (X, encOut, tgtMask, srcMask)");
@@ -55,17 +98,77 @@ public class Decoder implements Module {
             throw new IllegalArgumentException();
         Tensor out = xs[0]; Tensor encOut = xs[1]; Tensor selfMask = xs[2]; Tensor crossMask = xs[3];
 
-        this.encOut = encOut;
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+        c.encOut = encOut;
+        c.inputs = null;
         if(selfMask == null || crossMask == null)
             throw new IllegalArgumentException("masks null");
 
+        if(training && checkpointing && !ctx.isNoGrad()) {
+            c.inputs = new Tensor[decoderBlocks.length];
+            c.seeds = new long[decoderBlocks.length];
+            c.selfMask = selfMask; c.crossMask = crossMask;
+
+            // Blocks run in a throwaway no-grad context : only their inputs survive
+            for(int i=0;i<decoderBlocks.length;i++) {
+                c.inputs[i] = out;
+                c.seeds[i] = nextDropoutSeed();
+
+                try(ActivationContext ignored = ActivationContext.noGrad()) {
+                    try(MaskUtils.DropoutScope ignoredScope = MaskUtils.dropoutScope(c.seeds[i])) {
+                        out = decoderBlocks[i].forwardMany(true, out, encOut, selfMask, crossMask);
+                    }
+                }
+            }
+
+            return out;
+        }
+
         for(DecoderBlock block : decoderBlocks) {
-            out = block.forwardMany(training, out, encOut, selfMask, crossMask);
+            Tensor in = out;
+            out = block.forwardMany(training, in, encOut, selfMask, crossMask);
+
+            // No-grad : previous block output is no longer needed
+            if(in != xs[0]) ctx.discard(in);
         }
 
         return out;
     }
 
+    // Incremental forward (inference) : X [B, t, d_model] holds the t newest positions, KVCaches per block
+    public Tensor forwardStep(Tensor X, KVCache[] selfCaches, Tensor selfMask, KVCache[] crossCaches, Tensor crossMask) {
+        if(selfCaches == null || selfCaches.length != decoderBlocks.length
+                || crossCaches == null || crossCaches.length != decoderBlocks.length)
+            throw new IllegalArgumentException("One KVCache per DecoderBlock expected");
+
+        ActivationContext ctx = ActivationContext.current();
+        Tensor out = X;
+        for(int i=0;i<decoderBlocks.length;i++) {
+            Tensor in = out;
+            out = decoderBlocks[i].forwardStep(in, selfCaches[i], selfMask, crossCaches[i], crossMask);
+
+            if(in != X) ctx.discard(in);
+        }
+
+        return out;
+    }
+
+    // Cross-attention K/V of every DecoderBlock from encoder output
+    public KVCache[] precomputeCrossKV(Tensor encOut) {
+        KVCache[] caches = new KVCache[decoderBlocks.length];
+        for(int i=0;i<caches.length;i++) caches[i] = decoderBlocks[i].precomputeCrossKV(encOut);
+
+        return caches;
+    }
+
+    public KVCache[] newCaches(int maxLen) {
+        KVCache[] caches = new KVCache[decoderBlocks.length];
+        for(int i=0;i<caches.length;i++) caches[i] = new KVCache(maxLen);
+
+        return caches;
+    }
+
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
         throw new UnsupportedOperationException("Use calcGradientsMany()");
@@ -73,22 +176,74 @@ public class Decoder implements Module {
 
     @Override
     public Tensor[] calcGradientsMany(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null) throw new IllegalStateException("Decoder.calcGradientsMany() before forwardMany()");
+
         Tensor dY_s = (scale == 1.0) ? dY : dY.mul(scale);
 
-        Tensor dEncOutSum = Tensor.zeros(encOut.shape());
+        // Accumulated in place into the last block's dEncOut (a fresh tensor of its backward)
+        Tensor dEncOutSum = null;
         for(int i=decoderBlocks.length - 1;i>=0;i--) {
-            Tensor[] grads = decoderBlocks[i].calcGradientsMany(dY_s, accumulate, scale);
+            Tensor[] grads;
+            if(c.inputs != null) {
+                // Checkpointed : recompute block i (same dropout masks), backprop, drop its activations
+                try(ActivationContext ignored = ActivationContext.open()) {
+                    try(MaskUtils.DropoutScope ignoredScope = MaskUtils.dropoutScope(c.seeds[i])) {
+                        decoderBlocks[i].forwardMany(true, c.inputs[i], c.encOut, c.selfMask, c.crossMask);
+                    }
+                    grads = decoderBlocks[i].calcGradientsMany(dY_s, accumulate, scale);
+                }
+            } else grads = decoderBlocks[i].calcGradientsMany(dY_s, accumulate, scale);
+
+            if(gradientListener != null) gradientListener.onGradientsReady(decoderBlocks[i].parameters());
 
             // Gradients from next DecoderBlock
             dY_s = grads[0];
 
             // Sum all the gradients for DecoderBlocks, passed to last hidden Encoderblock
-            dEncOutSum = dEncOutSum.add(grads[1]);
+            dEncOutSum = (dEncOutSum == null) ? grads[1] : dEncOutSum.addi(grads[1]);
         }
 
+        if(dEncOutSum == null) dEncOutSum = Tensor.zeros(c.encOut.shape());
         return new Tensor[]{dY_s, dEncOutSum};
     }
 
+    public int numBlocks() {
+        return decoderBlocks.length;
+    }
+
+    // Pipeline stage : blocks [from, to) only (no checkpointing), activations stay in the blocks' caches
+    public Tensor forwardBlocks(int from, int to, boolean training, Tensor X, Tensor encOut, Tensor selfMask, Tensor crossMask) {
+        checkRange(from, to);
+        Tensor out = X;
+        for(int i=from;i<to;i++) out = decoderBlocks[i].forwardMany(training, out, encOut, selfMask, crossMask);
+
+        return out;
+    }
+
+    // Backward of forwardBlocks(from, to, ...) -> {dX, dEncOut summed over the blocks}
+    public Tensor[] calcGradientsBlocks(int from, int to, Tensor dY, boolean accumulate) {
+        checkRange(from, to);
+        Tensor g = dY, dEncOutSum = null;
+        for(int i=to - 1;i>=from;i--) {
+            Tensor[] grads = decoderBlocks[i].calcGradientsMany(g, accumulate, 1.0);
+            g = grads[0];
+            dEncOutSum = (dEncOutSum == null) ? grads[1] : dEncOutSum.addi(grads[1]);
+        }
+
+        return new Tensor[]{g, dEncOutSum};
+    }
+
+    private void checkRange(int from, int to) {
+        if(from < 0 || to > decoderBlocks.length || from > to)
+            throw new IllegalArgumentException("Block range [" + from + ", " + to + ") out of " + decoderBlocks.length);
+    }
+
+    // Called after each block's backward with that block's parameters (null : none)
+    public void setGradientListener(GradientListener listener) {
+        this.gradientListener = listener;
+    }
+
     @Override
     public void update(Optimizer optimizer) {
         if(isTrainable) for(DecoderBlock block : decoderBlocks) block.update(optimizer);
@@ -105,5 +260,6 @@ public class Decoder implements Module {
     @Override
     public void zeroGrad() {
         for(DecoderBlock block : decoderBlocks) block.zeroGrad();
+        ActivationContext.current().evict(this);
     }
 }
@@ -1,9 +1,11 @@
 package nn.transformer.modules;
 
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.optimizer.Optimizer;
-import nn.transformer.attention.MultiHeadAttention;
+import nn.transformer.attention.KVCache;
+import nn.transformer.attention.Attention;
 import tensor.Tensor;
 
 import java.util.ArrayList;
@@ -12,15 +14,15 @@ import java.util.List;
 public class DecoderBlock implements Module {
 
     private final Module norm1, norm2, norm3;
-    private final MultiHeadAttention selfMHA, crossMHA;
+    private final Attention selfMHA, crossMHA;
     private final FeedForwardNetwork ffn;
     private final boolean isTrainable;
 
     public DecoderBlock(Module norm1,
                         Module norm2,
                         Module norm3,
-                        MultiHeadAttention selfMHA,
-                        MultiHeadAttention crossMHA,
+                        Attention selfMHA,
+                        Attention crossMHA,
                         FeedForwardNetwork ffn,
                         boolean isTrainable) {
         this.norm1 = norm1; this.norm2 = norm2; this.norm3 = norm3;
@@ -61,9 +63,37 @@ public class DecoderBlock implements Module {
         // Residual connection
         Tensor O = Z.add(f);
 
+        ActivationContext.current().discard(N1, selfAttn, Y, N2, ca, Z, N3, f);
         return O;
     }
 
+    // Incremental forward (inference) : tgtX [B, t, d_model] holds only the t newest positions
+    // selfMask (nullable) : additive mask over cached positions, e.g. rows that joined a running batch late
+    public Tensor forwardStep(Tensor tgtX, KVCache selfCache, Tensor selfMask, KVCache crossCache, Tensor srcMask) {
+        // Self-Attention over cached positions
+        Tensor N1 = norm1.forward(tgtX, false);
+        Tensor sa = selfMHA.forwardStep(N1, selfCache, selfMask);
+        Tensor Y = tgtX.add(sa);
+
+        // Cross-Attention over precomputed encoder K/V
+        Tensor N2 = norm2.forward(Y, false);
+        Tensor ca = crossMHA.forwardStep(N2, crossCache, srcMask);
+        Tensor Z = Y.add(ca);
+
+        // FFN
+        Tensor N3 = norm3.forward(Z, false);
+        Tensor f = ffn.forward(N3, false);
+        Tensor O = Z.add(f);
+
+        ActivationContext.current().discard(N1, sa, Y, N2, ca, Z, N3, f);
+        return O;
+    }
+
+    // Encoder output -> cross-attention K/V, computed once per source
+    public KVCache precomputeCrossKV(Tensor encOut) {
+        return crossMHA.precomputeKV(encOut);
+    }
+
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
         throw new UnsupportedOperationException("Use calcGradientsMany()");
@@ -1,22 +1,38 @@
 package nn.transformer.modules;
 
 import nn.activation.GELU;
+import nn.core.ActivationContext;
+import nn.core.GradientListener;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.initializer.HeNormal;
 import nn.initializer.XavierNormal;
 import nn.optimizer.Optimizer;
+import nn.transformer.attention.Attention;
 import nn.transformer.attention.MultiHeadAttention;
+import nn.transformer.mask.MaskUtils;
+import org.nd4j.linalg.factory.Nd4j;
 import tensor.Tensor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.function.Supplier;
 
 public class Encoder implements Module {
 
     private final EncoderBlock[] encoderBlocks;
     private final boolean isTrainable;
+    private final boolean checkpointing;
+    private final SplittableRandom dropoutSeeds;    // Checkpointed blocks' dropout seeds (global RNG is never reseeded)
+    private GradientListener gradientListener;
+
+    // Activation checkpointing : block inputs + dropout seeds (per ActivationContext)
+    private static final class Cache {
+        Tensor[] inputs;
+        long[] seeds;
+        Tensor mask;
+    }
 
     public Encoder(int d_model,
                    int d_hidden,
@@ -26,20 +42,51 @@ public class Encoder implements Module {
                    boolean isTrainable,
                    double mhaDropProb,
                    double ffnActDropProb) {
+        this(d_model, d_hidden, numHeads, numEncoders, norm, isTrainable, mhaDropProb, ffnActDropProb, false);
+    }
+
+    /*
+     * checkpointing : training forward keeps only each block's input (and its dropout seed);
+     * calcGradients() re-runs the block forward with the same seed, so dropout masks are identical,
+     * then backprops through it. Activation memory goes from all blocks to one block, for one extra forward.
+     */
+    public Encoder(int d_model,
+                   int d_hidden,
+                   int numHeads,
+                   int numEncoders,
+                   Supplier<? extends Module> norm,
+                   boolean isTrainable,
+                   double mhaDropProb,
+                   double ffnActDropProb,
+                   boolean checkpointing) {
+        this(numEncoders, norm,
+                () -> new MultiHeadAttention(d_model, numHeads, new XavierNormal(), isTrainable, mhaDropProb, mhaDropProb, false),
+                () -> new FeedForwardNetwork(d_model, d_hidden, new GELU(true), new XavierNormal(), new HeNormal(), isTrainable, ffnActDropProb),
+                isTrainable, checkpointing);
+    }
+
+    // Blocks from the given layers, e.g. ShardedMultiHeadAttention and a FeedForwardNetwork over
+    // ColumnParallelLinear / RowParallelLinear for a tensor-parallel encoder
+    public Encoder(int numEncoders,
+                   Supplier<? extends Module> norm,
+                   Supplier<? extends Attention> selfAttention,
+                   Supplier<FeedForwardNetwork> ffn,
+                   boolean isTrainable,
+                   boolean checkpointing) {
         this.encoderBlocks = new EncoderBlock[numEncoders];
         this.isTrainable = isTrainable;
+        this.checkpointing = checkpointing;
+        this.dropoutSeeds = new SplittableRandom(Nd4j.getRandom().nextLong());
 
         for(int i=0;i<numEncoders;i++) {
-            encoderBlocks[i] = new EncoderBlock(
-                    norm.get(),
-                    norm.get(),
-                    new MultiHeadAttention(d_model, numHeads, new XavierNormal(), isTrainable, mhaDropProb, mhaDropProb, false),
-                    new FeedForwardNetwork(d_model, d_hidden, new GELU(true), new XavierNormal(), new HeNormal(), isTrainable, ffnActDropProb),
-                    isTrainable
-            );
+            encoderBlocks[i] = new EncoderBlock(norm.get(), norm.get(), selfAttention.get(), ffn.get(), isTrainable);
         }
     }
 
+    private synchronized long nextDropoutSeed() {
+        return dropoutSeeds.nextLong();
+    }
+
     @Override
     public Tensor forward(Tensor X, boolean training) {
         throw new UnsupportedOperationException("Encoder expects (X, mask)");
@@ -51,8 +98,38 @@ public class Encoder implements Module {
 
         if(mask == null) throw new IllegalArgumentException("mask null");
 
+        ActivationContext ctx = ActivationContext.current();
+        if(training && checkpointing && !ctx.isNoGrad()) return forwardCheckpointed(ctx, out, mask);
+        ctx.evict(this);
+
         for(EncoderBlock block : encoderBlocks) {
-            out = block.forwardMany(training, out, mask);
+            Tensor in = out;
+            out = block.forwardMany(training, in, mask);
+
+            // No-grad : previous block output is no longer needed
+            if(in != xs[0]) ctx.discard(in);
+        }
+
+        return out;
+    }
+
+    // Blocks run in a throwaway no-grad context : only their inputs survive
+    private Tensor forwardCheckpointed(ActivationContext ctx, Tensor X, Tensor mask) {
+        Cache c = ctx.cache(this, Cache::new);
+        c.inputs = new Tensor[encoderBlocks.length];
+        c.seeds = new long[encoderBlocks.length];
+        c.mask = mask;
+
+        Tensor out = X;
+        for(int i=0;i<encoderBlocks.length;i++) {
+            c.inputs[i] = out;
+            c.seeds[i] = nextDropoutSeed();
+
+            try(ActivationContext ignored = ActivationContext.noGrad()) {
+                try(MaskUtils.DropoutScope ignoredScope = MaskUtils.dropoutScope(c.seeds[i])) {
+                    out = encoderBlocks[i].forwardMany(true, out, mask);
+                }
+            }
         }
 
         return out;
@@ -62,13 +139,67 @@ public class Encoder implements Module {
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
         Tensor dY_s = (scale == 1.0) ? dY : dY.mul(scale);
         Tensor g = dY_s;
+
+        Cache c = ActivationContext.current().peek(this);
+        if(c != null) {
+            // Checkpointed : recompute block i (same dropout masks), backprop, drop its activations
+            for(int i=encoderBlocks.length - 1;i>=0;i--) {
+                try(ActivationContext ignored = ActivationContext.open()) {
+                    try(MaskUtils.DropoutScope ignoredScope = MaskUtils.dropoutScope(c.seeds[i])) {
+                        encoderBlocks[i].forwardMany(true, c.inputs[i], c.mask);
+                    }
+                    g = encoderBlocks[i].calcGradients(g, accumulate, 1.0);
+                }
+                notifyReady(i);
+            }
+
+            return g;
+        }
+
         for(int i=encoderBlocks.length - 1;i>=0;i--) {
             g = encoderBlocks[i].calcGradients(g, accumulate, 1.0);
+            notifyReady(i);
         }
 
         return g;
     }
 
+    public int numBlocks() {
+        return encoderBlocks.length;
+    }
+
+    // Pipeline stage : blocks [from, to) only (no checkpointing), activations stay in the blocks' caches
+    public Tensor forwardBlocks(int from, int to, boolean training, Tensor X, Tensor mask) {
+        checkRange(from, to);
+        Tensor out = X;
+        for(int i=from;i<to;i++) out = encoderBlocks[i].forwardMany(training, out, mask);
+
+        return out;
+    }
+
+    // Backward of forwardBlocks(from, to, ...)
+    public Tensor calcGradientsBlocks(int from, int to, Tensor dY, boolean accumulate) {
+        checkRange(from, to);
+        Tensor g = dY;
+        for(int i=to - 1;i>=from;i--) g = encoderBlocks[i].calcGradients(g, accumulate, 1.0);
+
+        return g;
+    }
+
+    private void checkRange(int from, int to) {
+        if(from < 0 || to > encoderBlocks.length || from > to)
+            throw new IllegalArgumentException("Block range [" + from + ", " + to + ") out of " + encoderBlocks.length);
+    }
+
+    // Called after each block's backward with that block's parameters (null : none)
+    public void setGradientListener(GradientListener listener) {
+        this.gradientListener = listener;
+    }
+
+    private void notifyReady(int block) {
+        if(gradientListener != null) gradientListener.onGradientsReady(encoderBlocks[block].parameters());
+    }
+
     @Override
     public void update(Optimizer optimizer) {
         if(isTrainable) for(EncoderBlock block : encoderBlocks) block.update(optimizer);
@@ -85,5 +216,6 @@ public class Encoder implements Module {
     @Override
     public void zeroGrad() {
         for(EncoderBlock block : encoderBlocks) block.zeroGrad();
+        ActivationContext.current().evict(this);
     }
 }
@@ -1,9 +1,10 @@
 package nn.transformer.modules;
 
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.optimizer.Optimizer;
-import nn.transformer.attention.MultiHeadAttention;
+import nn.transformer.attention.Attention;
 import tensor.Tensor;
 
 import java.util.ArrayList;
@@ -12,13 +13,13 @@ import java.util.List;
 public class EncoderBlock implements Module {
 
     private final Module norm1, norm2;
-    private final MultiHeadAttention mha;
+    private final Attention mha;
     private final FeedForwardNetwork ffn;
     private final boolean isTrainable;
 
     public EncoderBlock(Module norm1,
                         Module norm2,
-                        MultiHeadAttention mha,
+                        Attention mha,
                         FeedForwardNetwork ffn,
                         boolean isTrainable) {
         this.norm1 = norm1; this.norm2 = norm2;
@@ -50,6 +51,7 @@ public class EncoderBlock implements Module {
         // Residual connection
         Tensor Z = Y.add(feedForward);
 
+        ActivationContext.current().discard(N1, selfAttn, Y, N2, feedForward);
         return Z;
     }
 
@@ -1,6 +1,7 @@
 package nn.transformer.modules;
 
 import nn.activation.Activation;
+import nn.core.ActivationContext;
 import nn.core.Module;
 import nn.core.Parameter;
 import nn.initializer.Initializer;
@@ -14,13 +15,16 @@ import java.util.List;
 
 public class FeedForwardNetwork implements Module {
 
-    private final Linear l1, l2;
+    private final Module l1, l2;
     private final Activation act;
     private final boolean isTrainable;
 
     private final double dropProb;
 
-    private Tensor cDropAct, cDropOut;
+    // Dropout masks (per ActivationContext)
+    private static final class Cache {
+        Tensor cDropAct, cDropOut;
+    }
 
     public FeedForwardNetwork(int d_model, int d_hidden, Activation act, Initializer wInit, Initializer bInit, boolean isTrainable, double dropProb) {
         this.act = act;
@@ -31,25 +35,44 @@ public class FeedForwardNetwork implements Module {
         this.l1 = new Linear(d_model, d_hidden, wInit, bInit, isTrainable);
         this.l2 = new Linear(d_hidden, d_model, wInit, bInit, isTrainable);
     }
+
+    // Given projections l1 : d_model -> d_hidden, l2 : d_hidden -> d_model
+    // (e.g. ColumnParallelLinear + RowParallelLinear for a tensor-parallel FFN)
+    public FeedForwardNetwork(Module l1, Module l2, Activation act, boolean isTrainable, double dropProb) {
+        this.act = act;
+        this.isTrainable = isTrainable;
+
+        this.dropProb = dropProb;
+
+        this.l1 = l1;
+        this.l2 = l2;
+    }
+
     @Override
     public Tensor forward(Tensor X, boolean training) {
+        ActivationContext ctx = ActivationContext.current();
+        Cache c = ctx.cache(this, Cache::new);
+
         Tensor Z1 = l1.forward(X, training);
         Tensor H1 = act.forward(Z1);
+        ctx.discard(Z1);
 
         if(training) {
-            cDropAct = MaskUtils.dropoutMaskLike(H1, dropProb);
-            H1 = H1.mul(cDropAct);
+            // Out of place : Sigmoid / Tanh / SiLU keep their output for backward
+            c.cDropAct = MaskUtils.dropoutMaskLike(H1, dropProb);
+            H1 = H1.mul(c.cDropAct);
         } else {
-            cDropAct = null;
+            c.cDropAct = null;
         }
 
         Tensor Y = l2.forward(H1, training);
+        ctx.discard(H1);
 
         if(training) {
-            cDropOut = MaskUtils.dropoutMaskLike(Y, dropProb);
-            Y = Y.mul(cDropOut);
+            c.cDropOut = MaskUtils.dropoutMaskLike(Y, dropProb);
+            Y.muli(c.cDropOut);
         } else {
-            cDropOut = null;
+            c.cDropOut = null;
         }
 
         return Y;
@@ -57,13 +80,16 @@ public class FeedForwardNetwork implements Module {
 
     @Override
     public Tensor calcGradients(Tensor dY, boolean accumulate, double scale) {
+        Cache c = ActivationContext.current().peek(this);
+        if(c == null) throw new IllegalStateException("FeedForwardNetwork.calcGradients() before forward()");
+
         Tensor dY_s = (scale == 1.0) ? dY : dY.mul(scale);
 
-        if(cDropOut != null) dY_s = dY_s.mul(cDropOut);
+        if(c.cDropOut != null) dY_s = dY_s.mul(c.cDropOut);
 
         Tensor dH = l2.calcGradients(dY_s, accumulate, 1.0);
 
-        if(cDropAct != null) dH = dH.mul(cDropAct);
+        if(c.cDropAct != null) dH = dH.mul(c.cDropAct);
 
         Tensor dZ1 = act.backward(dH);
         Tensor dX = l1.calcGradients(dZ1, accumulate, 1.0);
@@ -91,5 +117,10 @@ public class FeedForwardNetwork implements Module {
     @Override
     public void zeroGrad() {
         l1.zeroGrad(); l2.zeroGrad();
+
+        // The activation caches its input too (it has no zeroGrad() of its own)
+        ActivationContext ctx = ActivationContext.current();
+        ctx.evict(act);
+        ctx.evict(this);
     }
 }
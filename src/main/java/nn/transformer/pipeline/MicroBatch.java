@@ -0,0 +1,31 @@
+package nn.transformer.pipeline;
+
+import tensor.Tensor;
+
+// One micro-batch of a pipeline step : ids, attention masks and loss weight, plus the results of the last stage
+public final class MicroBatch {
+
+    public final int index;
+    public final Tensor srcIds, tgtInIds, tgtOutIds;    // [b, S], [b, T], [b, T]
+    public final Tensor padMask;                        // [b, T] (target tokens that count in the loss)
+    public final Tensor encMask, decSelfMask, crossMask;
+    public final double weight;                         // Share of the step's loss (non-PAD token share)
+
+    // Filled by the last stage
+    double loss;
+    int correct, total;
+
+    public MicroBatch(int index, Tensor srcIds, Tensor tgtInIds, Tensor tgtOutIds, Tensor padMask,
+                      Tensor encMask, Tensor decSelfMask, Tensor crossMask, double weight) {
+        this.index = index;
+        this.srcIds = srcIds; this.tgtInIds = tgtInIds; this.tgtOutIds = tgtOutIds;
+        this.padMask = padMask;
+        this.encMask = encMask; this.decSelfMask = decSelfMask; this.crossMask = crossMask;
+        this.weight = weight;
+    }
+
+    // Loss of this micro-batch (mean over its tokens, not weighted)
+    public double loss() { return loss; }
+    public int correct() { return correct; }
+    public int total() { return total; }
+}
@@ -0,0 +1,40 @@
+package nn.transformer.pipeline;
+
+/*
+ * 1F1B (one forward, one backward) pipeline schedule.
+ *
+ * Stage s of S first runs min(S - s - 1, M) warm-up forwards, then alternates forward / backward, then drains
+ * the remaining backwards. A stage never holds more than S - s micro-batches of activations (vs. M for
+ * all-forward-then-all-backward), and the idle time per step is the same :
+ *
+ *   bubble = (S - 1) / (M + S - 1)        (equal stage times)
+ *
+ * Micro-batches go through every stage in increasing order, forwards and backwards alike.
+ */
+public final class PipelineSchedule {
+
+    private PipelineSchedule() {}
+
+    // Operations of one stage, in order : micro-batch m >= 0 is forward m, -(m + 1) is backward m
+    public static int[] oneForwardOneBackward(int stage, int numStages, int numMicro) {
+        if(stage < 0 || stage >= numStages) throw new IllegalArgumentException("stage out of range : " + stage);
+        if(numMicro < 1) throw new IllegalArgumentException("numMicro must be >= 1");
+
+        int warmup = Math.min(numStages - stage - 1, numMicro);
+        int[] ops = new int[2 * numMicro];
+        int k = 0, f = 0, b = 0;
+
+        for(int i=0;i<warmup;i++) ops[k++] = f++;
+        while(f < numMicro) {
+            ops[k++] = f++;
+            ops[k++] = -(++b);
+        }
+        while(b < numMicro) ops[k++] = -(++b);
+
+        return ops;
+    }
+
+    public static double idealBubble(int numStages, int numMicro) {
+        return (double) (numStages - 1) / (numMicro + numStages - 1);
+    }
+}
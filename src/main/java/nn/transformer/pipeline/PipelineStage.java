@@ -0,0 +1,138 @@
+package nn.transformer.pipeline;
+
+import nn.layers.Linear;
+import nn.loss.Loss;
+import nn.transformer.embeddings.SinusoidalPositionalEncoding;
+import nn.transformer.embeddings.TokenEmbeddings;
+import nn.transformer.modules.Decoder;
+import nn.transformer.modules.Encoder;
+import tensor.Tensor;
+
+/*
+ * A contiguous range of the Transformer's layers [encoder blocks..., decoder blocks...] (see
+ * Transformer.pipelineStages()). The first stage also owns the embeddings, the last one lmHead and the loss.
+ *
+ * Tensors passed between stages :
+ *   forward  : encoder part (encX, tgtX)       decoder part (decY, encOut)
+ *   backward : encoder part (dEncX, dTgtX)     decoder part (dDecY, dEncOut summed over later blocks)
+ * The stage holding decoder block 0 switches between the two. The last stage's forward returns (dLogits),
+ * which is what its backward starts from.
+ *
+ * Gradients are always accumulated (backwardAccumulate path), one micro-batch after the other.
+ */
+public final class PipelineStage {
+
+    private final TokenEmbeddings srcEmb, tgtEmb;       // First stage only
+    private final SinusoidalPositionalEncoding posEnc;
+    private final Encoder encoder;
+    private final Decoder decoder;
+    private final int encFrom, encTo, decFrom, decTo;
+    private final Linear lmHead;                        // Last stage only
+
+    // lmHead, tgtEmb and srcEmb may share their weight : their gradient updates must not interleave
+    private final Object tiedLock;
+
+    public PipelineStage(TokenEmbeddings srcEmb, TokenEmbeddings tgtEmb, SinusoidalPositionalEncoding posEnc,
+                         Encoder encoder, int encFrom, int encTo,
+                         Decoder decoder, int decFrom, int decTo,
+                         Linear lmHead, Object tiedLock) {
+        if((srcEmb == null) != (tgtEmb == null)) throw new IllegalArgumentException("Both embeddings or none");
+
+        this.srcEmb = srcEmb; this.tgtEmb = tgtEmb;
+        this.posEnc = posEnc;
+        this.encoder = encoder; this.encFrom = encFrom; this.encTo = encTo;
+        this.decoder = decoder; this.decFrom = decFrom; this.decTo = decTo;
+        this.lmHead = lmHead;
+        this.tiedLock = tiedLock;
+    }
+
+    public Tensor[] forward(MicroBatch mb, Tensor[] in, Loss loss) {
+        Tensor x, aux;
+        if(srcEmb != null) {
+            x = posEnc.apply(srcEmb.forward(mb.srcIds, true));
+            aux = posEnc.apply(tgtEmb.forward(mb.tgtInIds, true));
+        } else {
+            x = in[0]; aux = in[1];
+        }
+
+        if(encFrom < encTo) x = encoder.forwardBlocks(encFrom, encTo, true, x, mb.encMask);
+        if(decFrom < decTo) {
+            if(entersDecoder()) {
+                Tensor encOut = x;
+                x = aux; aux = encOut;
+            }
+            x = decoder.forwardBlocks(decFrom, decTo, true, x, aux, mb.decSelfMask, mb.crossMask);
+        }
+
+        if(lmHead == null) return new Tensor[]{x, aux};
+
+        Tensor logits = lmHead.forward(x, true);
+        mb.loss = loss.forward(logits, mb.tgtOutIds, mb.padMask);
+        countCorrect(mb, logits);
+
+        return new Tensor[]{loss.backward()};
+    }
+
+    // Gradient w.r.t. this stage's input (empty for the first stage)
+    public Tensor[] backward(MicroBatch mb, Tensor[] dOut) {
+        Tensor dx, dAux;
+        if(lmHead != null) {
+            synchronized(tiedLock) {
+                dx = lmHead.calcGradients(dOut[0], true, mb.weight);
+            }
+            dAux = null;
+        } else {
+            dx = dOut[0]; dAux = dOut[1];
+        }
+
+        if(decFrom < decTo) {
+            Tensor[] g = decoder.calcGradientsBlocks(decFrom, decTo, dx, true);
+            dx = g[0];
+            dAux = (dAux == null) ? g[1] : dAux.add(g[1]);
+
+            if(entersDecoder()) {
+                Tensor dTgtX = dx;
+                dx = dAux; dAux = dTgtX;
+            }
+        }
+        if(encFrom < encTo) dx = encoder.calcGradientsBlocks(encFrom, encTo, dx, true);
+
+        if(srcEmb == null) return new Tensor[]{dx, dAux};
+
+        synchronized(tiedLock) {
+            tgtEmb.calcGradients(dAux, true, 1.0);
+            srcEmb.calcGradients(dx, true, 1.0);
+        }
+        return new Tensor[0];
+    }
+
+    private boolean entersDecoder() {
+        return decFrom == 0 && decTo > 0;
+    }
+
+    // Token accuracy (ignores PAD)
+    private static void countCorrect(MicroBatch mb, Tensor logits) {
+        Tensor pred = logits.argmax(-1);
+        Tensor padMask = mb.padMask;
+        int B = mb.tgtOutIds.size(0), T = mb.tgtOutIds.size(1);
+
+        int correct = 0, total = 0;
+        for(int i=0;i<B;i++) {
+            for(int j=0;j<T;j++) {
+                if(padMask.getInt(i, j) == 0) continue;
+                if(pred.getInt(i, j) == mb.tgtOutIds.getInt(i, j)) correct++;
+                total++;
+            }
+        }
+        mb.correct = correct;
+        mb.total = total;
+    }
+
+    public boolean isFirst() { return srcEmb != null; }
+    public boolean isLast() { return lmHead != null; }
+
+    public String describe() {
+        return "enc[" + encFrom + ", " + encTo + ") dec[" + decFrom + ", " + decTo + ")"
+                + (isFirst() ? " +emb" : "") + (isLast() ? " +head" : "");
+    }
+}
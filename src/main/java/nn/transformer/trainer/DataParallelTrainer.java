@@ -0,0 +1,236 @@
+package nn.transformer.trainer;
+
+import nn.core.ActivationContext;
+import nn.core.Parameter;
+import nn.loss.Loss;
+import nn.optimizer.Optimizer;
+import nn.transformer.Transformer;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/*
+ * Data-parallel training on one machine : N replicas of the model, one thread each.
+ *
+ *  - replica 0 is the trained model; the other replicas share its weight tensors (no copies, read-only in forward)
+ *  - every step the batch is split into N shards, each replica runs forward/backward on its shard
+ *    (loss weighted by its share of non-PAD tokens, so the summed gradient equals the full-batch gradient)
+ *  - gradients are summed into replica 0 by a tree reduction (log2(N) rounds, pairs reduced in parallel)
+ *  - one Optimizer step on replica 0, then replicas are re-pointed at the updated weights
+ *
+ * Best scaling with ND4J intra-op threading off (OMP_NUM_THREADS=1) : the parallelism comes from the replicas.
+ */
+public final class DataParallelTrainer implements AutoCloseable {
+
+    private final Transformer model;
+    private final Transformer[] replicas;
+    private final List<List<Parameter>> params;     // Unique parameters of each replica, same order
+    private final Loss[] losses;
+    private final Optimizer opt;
+    private final int PAD;
+
+    private final ExecutorService pool;
+
+    // factory : builds a model with the same architecture (and weight tying) as model
+    public DataParallelTrainer(Transformer model, Supplier<Transformer> factory,
+                               Optimizer opt, Supplier<? extends Loss> lossFactory,
+                               int numReplicas, int PADid) {
+        if(numReplicas < 1) throw new IllegalArgumentException("numReplicas must be >= 1");
+
+        this.model = model;
+        this.opt = opt;
+        this.PAD = PADid;
+
+        this.replicas = new Transformer[numReplicas];
+        this.losses = new Loss[numReplicas];
+        this.params = new ArrayList<>();
+
+        for(int r=0;r<numReplicas;r++) {
+            replicas[r] = (r == 0) ? model : factory.get();
+            losses[r] = lossFactory.get();
+            params.add(replicas[r].parameters());   // Tied weights listed once
+
+            if(params.get(r).size() != params.get(0).size())
+                throw new IllegalArgumentException("Replica " + r + " does not match the model's parameters");
+        }
+        shareWeights();
+
+        this.pool = Executors.newFixedThreadPool(numReplicas);
+    }
+
+    public double[] trainEpoch(ToySeq2SeqDataset ds, int batchSize) {
+        int N = ds.B;
+        int steps = (N + batchSize - 1) / batchSize;
+
+        double lossSum = 0.0;
+        long correct = 0, total = 0;
+
+        for(int step=0;step<steps;step++) {
+            int start = step * batchSize;
+            int B = Math.min(batchSize, N - start);
+
+            double[] res = trainStep(ds, start, B);
+            lossSum += res[0];
+            correct += (long) res[1];
+            total += (long) res[2];
+        }
+
+        double avgLoss = lossSum / Math.max(1, steps);
+        double tokenAcc = (total == 0) ? 0.0 : (double) correct / total;
+
+        return new double[]{avgLoss, tokenAcc};
+    }
+
+    // One optimizer step over samples [start, start + B) -> {loss, correct, total}
+    public double[] trainStep(ToySeq2SeqDataset ds, int start, int B) {
+        int n = replicas.length;
+
+        // Shards : sizes differ by at most 1, empty shards (B < n) are skipped
+        int[] shardStart = new int[n], shardSize = new int[n];
+        long[] shardTokens = new long[n];
+        long batchTokens = 0;
+        for(int r=0, s=start;r<n;r++) {
+            shardStart[r] = s;
+            shardSize[r] = B / n + ((r < B % n) ? 1 : 0);
+            shardTokens[r] = countTokens(ds, s, shardSize[r]);
+            batchTokens += shardTokens[r];
+            s += shardSize[r];
+        }
+
+        List<Future<double[]>> futures = new ArrayList<>();
+        for(int r=0;r<n;r++) {
+            if(shardSize[r] == 0) continue;
+
+            final int rep = r;
+            final double weight = (double) shardTokens[r] / Math.max(1, batchTokens);
+            futures.add(pool.submit(() -> shardStep(rep, ds, shardStart[rep], shardSize[rep], weight)));
+        }
+
+        double loss = 0.0, correct = 0, total = 0;
+        for(double[] res : await(futures)) {
+            loss += res[0]; correct += res[1]; total += res[2];
+        }
+
+        reduceGradients();
+
+        model.update(opt);
+        for(Transformer replica : replicas) replica.zeroGrad();
+        shareWeights();
+
+        return new double[]{loss, correct, total};
+    }
+
+    // Forward/backward of one replica on its shard, in its own ActivationContext
+    private double[] shardStep(int r, ToySeq2SeqDataset ds, int start, int B, double weight) {
+        Transformer m = replicas[r];
+        Loss lossFunc = losses[r];
+
+        try(ActivationContext ignored = ActivationContext.open()) {
+            Tensor srcIds = ds.batchSrc(start, B);
+            Tensor tgtInIds = ds.batchTgtIn(start, B);
+            Tensor tgtOutIds = ds.batchTgtOut(start, B);
+
+            Tensor logits = m.forward(srcIds, tgtInIds, true);
+            Tensor padMask = tgtOutIds.ne(PAD);
+
+            double lossVal = lossFunc.forward(logits, tgtOutIds, padMask);
+            m.backward(lossFunc.backward(), false, weight);
+
+            // Token Accuracy (ignores PAD)
+            int correct = 0, total = 0;
+            Tensor pred = logits.argmax(-1);
+            int S = tgtOutIds.size(1);
+            for(int i=0;i<B;i++) {
+                for(int j=0;j<S;j++) {
+                    int y = tgtOutIds.getInt(i, j);
+
+                    if(y == PAD) continue;
+                    if(pred.getInt(i, j) == y) correct++;
+                    total++;
+                }
+            }
+
+            return new double[]{lossVal * weight, correct, total};
+        }
+    }
+
+    // Tree all-reduce into replica 0 : round k adds replica (r + 2^k) into replica r
+    private void reduceGradients() {
+        int n = replicas.length;
+
+        for(int stride=1;stride<n;stride*=2) {
+            List<Future<Void>> round = new ArrayList<>();
+            for(int r=0;r+stride<n;r+=2*stride) {
+                final List<Parameter> dst = params.get(r), src = params.get(r + stride);
+                round.add(pool.submit(() -> {
+                    accumulate(dst, src);
+                    return (Void) null;
+                }));
+            }
+            await(round);
+        }
+    }
+
+    // dst.grad += src.grad (in place, grads are owned by their replica)
+    private static void accumulate(List<Parameter> dst, List<Parameter> src) {
+        for(int i=0;i<dst.size();i++) {
+            Tensor g = src.get(i).getGrad();
+            if(g == null) continue;
+
+            Parameter p = dst.get(i);
+            if(p.getGrad() == null) p.setGrad(g);
+            else p.getGrad().addi(g);
+        }
+    }
+
+    // Replicas 1..N-1 read replica 0's weight tensors
+    private void shareWeights() {
+        List<Parameter> master = params.get(0);
+        for(int r=1;r<replicas.length;r++) {
+            List<Parameter> ps = params.get(r);
+            for(int i=0;i<ps.size();i++) {
+                Tensor w = master.get(i).getData();
+                if(ps.get(i).getData() != w) {
+                    if(!Arrays.equals(ps.get(i).getData().shape(), w.shape()))
+                        throw new IllegalArgumentException("Parameter shape mismatch : " + master.get(i).getName());
+                    ps.get(i).setData(w);
+                }
+            }
+        }
+    }
+
+    private long countTokens(ToySeq2SeqDataset ds, int start, int B) {
+        long n = 0;
+        for(int b=start;b<start+B;b++) for(int y : ds.tgtOut[b]) if(y != PAD) n++;
+        return n;
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) {
+        List<T> out = new ArrayList<>();
+        try {
+            for(Future<T> f : futures) out.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for replicas", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replica step failed", e.getCause());
+        }
+        return out;
+    }
+
+    public int numReplicas() {
+        return replicas.length;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,233 @@
+package nn.transformer.trainer;
+
+import nn.core.ActivationContext;
+import nn.loss.Loss;
+import nn.optimizer.Optimizer;
+import nn.transformer.Transformer;
+import nn.transformer.pipeline.MicroBatch;
+import nn.transformer.pipeline.PipelineSchedule;
+import nn.transformer.pipeline.PipelineStage;
+import tensor.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * Pipeline-parallel training : the model's layers are cut into numStages stages, one thread each.
+ *
+ *  - every step the batch is split into numMicro micro-batches (loss weighted by non-PAD token share)
+ *  - each stage runs its 1F1B schedule (PipelineSchedule), handing activations forward and gradients backward
+ *    to its neighbours through queues; stage s keeps the activations of micro-batch m in its own
+ *    ActivationContext until backward m
+ *  - gradients accumulate over the micro-batches, then one Optimizer step on the model
+ *
+ * After each step, stageUtilization() / bubbleFraction() tell how busy the stages were (more micro-batches :
+ * smaller bubble, but smaller matmuls).
+ */
+public final class PipelineTrainer implements AutoCloseable {
+
+    private final Transformer model;
+    private final PipelineStage[] stages;
+    private final Loss lossFunc;                // Used by the last stage only
+    private final Optimizer opt;
+    private final int numMicro;
+    private final int PAD;
+
+    private final ExecutorService pool;
+
+    // Last step
+    private final double[] busySec;
+    private double wallSec;
+
+    public PipelineTrainer(Transformer model, Optimizer opt, Loss lossFunc, int numStages, int numMicro, int PADid) {
+        if(numMicro < 1) throw new IllegalArgumentException("numMicro must be >= 1");
+
+        this.model = model;
+        this.stages = model.pipelineStages(numStages);
+        this.opt = opt;
+        this.lossFunc = lossFunc;
+        this.numMicro = numMicro;
+        this.PAD = PADid;
+
+        this.busySec = new double[numStages];
+        this.pool = Executors.newFixedThreadPool(numStages);
+    }
+
+    public double[] trainEpoch(ToySeq2SeqDataset ds, int batchSize) {
+        int N = ds.B;
+        int steps = (N + batchSize - 1) / batchSize;
+
+        double lossSum = 0.0;
+        long correct = 0, total = 0;
+
+        for(int step=0;step<steps;step++) {
+            int start = step * batchSize;
+            int B = Math.min(batchSize, N - start);
+
+            double[] res = trainStep(ds, start, B);
+            lossSum += res[0];
+            correct += (long) res[1];
+            total += (long) res[2];
+        }
+
+        double avgLoss = lossSum / Math.max(1, steps);
+        double tokenAcc = (total == 0) ? 0.0 : (double) correct / total;
+
+        return new double[]{avgLoss, tokenAcc};
+    }
+
+    // One optimizer step over samples [start, start + B) -> {loss, correct, total}
+    public double[] trainStep(ToySeq2SeqDataset ds, int start, int B) {
+        MicroBatch[] micro = split(ds, start, B);
+        int S = stages.length;
+
+        // Stage s reads activations from fwd[s] and gradients from bwd[s]
+        List<BlockingQueue<Tensor[]>> fwd = new ArrayList<>(), bwd = new ArrayList<>();
+        for(int s=0;s<S;s++) {
+            fwd.add(new LinkedBlockingQueue<>());
+            bwd.add(new LinkedBlockingQueue<>());
+        }
+
+        model.zeroGrad();
+
+        long t0 = System.nanoTime();
+        List<Future<Double>> futures = new ArrayList<>();
+        for(int s=0;s<S;s++) {
+            final int stage = s;
+            futures.add(pool.submit(() -> runStage(stage, micro, fwd, bwd)));
+        }
+        try {
+            for(int s=0;s<S;s++) busySec[s] = await(futures.get(s));
+        } catch (RuntimeException e) {
+            // The other stages would wait on their neighbours forever
+            for(Future<Double> f : futures) f.cancel(true);
+            throw e;
+        }
+        wallSec = (System.nanoTime() - t0) / 1e9;
+
+        model.update(opt);
+        model.zeroGrad();
+
+        double loss = 0.0;
+        int correct = 0, total = 0;
+        for(MicroBatch mb : micro) {
+            loss += mb.loss() * mb.weight;
+            correct += mb.correct();
+            total += mb.total();
+        }
+
+        return new double[]{loss, correct, total};
+    }
+
+    // Runs stage s's schedule, returns its busy time (sec, excluding waits on neighbours)
+    private double runStage(int s, MicroBatch[] micro, List<BlockingQueue<Tensor[]>> fwd,
+                            List<BlockingQueue<Tensor[]>> bwd) throws InterruptedException {
+        PipelineStage stage = stages[s];
+        int M = micro.length;
+
+        ActivationContext[] ctx = new ActivationContext[M];
+        Tensor[][] dLogits = new Tensor[M][];       // Last stage : forward output, start of backward
+        long busy = 0;
+
+        for(int op : PipelineSchedule.oneForwardOneBackward(s, stages.length, M)) {
+            if(op >= 0) {
+                MicroBatch mb = micro[op];
+                Tensor[] in = stage.isFirst() ? null : fwd.get(s).take();
+
+                long t0 = System.nanoTime();
+                ctx[op] = ActivationContext.detached();
+                Tensor[] out = ctx[op].call(() -> stage.forward(mb, in, lossFunc));
+                busy += System.nanoTime() - t0;
+
+                if(stage.isLast()) dLogits[op] = out;
+                else fwd.get(s + 1).put(out);
+            } else {
+                int m = -op - 1;
+                MicroBatch mb = micro[m];
+                Tensor[] dOut = stage.isLast() ? dLogits[m] : bwd.get(s).take();
+
+                long t0 = System.nanoTime();
+                Tensor[] dIn = ctx[m].call(() -> stage.backward(mb, dOut));
+                ctx[m].close();
+                ctx[m] = null;
+                dLogits[m] = null;
+                busy += System.nanoTime() - t0;
+
+                if(!stage.isFirst()) bwd.get(s - 1).put(dIn);
+            }
+        }
+
+        return busy / 1e9;
+    }
+
+    // Micro-batch sizes differ by at most 1; empty ones (B < numMicro) are dropped
+    private MicroBatch[] split(ToySeq2SeqDataset ds, int start, int B) {
+        int M = Math.min(numMicro, B);
+        long batchTokens = countTokens(ds, start, B);
+
+        MicroBatch[] micro = new MicroBatch[M];
+        for(int m=0, s=start;m<M;m++) {
+            int size = B / M + ((m < B % M) ? 1 : 0);
+            double weight = (double) countTokens(ds, s, size) / Math.max(1, batchTokens);
+
+            micro[m] = model.microBatch(m, ds.batchSrc(s, size), ds.batchTgtIn(s, size), ds.batchTgtOut(s, size), weight);
+            s += size;
+        }
+
+        return micro;
+    }
+
+    private long countTokens(ToySeq2SeqDataset ds, int start, int B) {
+        long n = 0;
+        for(int b=start;b<start+B;b++) for(int y : ds.tgtOut[b]) if(y != PAD) n++;
+        return n;
+    }
+
+    private static double await(Future<Double> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pipeline stages", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Pipeline stage failed", e.getCause());
+        }
+    }
+
+    // Last step : busy time / wall time of each stage
+    public double[] stageUtilization() {
+        double[] u = new double[stages.length];
+        for(int s=0;s<u.length;s++) u[s] = (wallSec == 0.0) ? 0.0 : busySec[s] / wallSec;
+
+        return u;
+    }
+
+    // Last step : share of stage-time spent idle (fill / drain bubble + imbalance)
+    public double bubbleFraction() {
+        double busy = 0.0;
+        for(double b : busySec) busy += b;
+
+        return (wallSec == 0.0) ? 0.0 : 1.0 - busy / (stages.length * wallSec);
+    }
+
+    public int numStages() { return stages.length; }
+    public int numMicro() { return numMicro; }
+
+    public String describeStages() {
+        StringBuilder sb = new StringBuilder();
+        for(int s=0;s<stages.length;s++) sb.append("stage ").append(s).append(" : ").append(stages[s].describe()).append('\n');
+
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
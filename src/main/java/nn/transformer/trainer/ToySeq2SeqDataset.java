@@ -29,9 +29,17 @@ public final class ToySeq2SeqDataset {
     }
 
     public static ToySeq2SeqDataset make(Task task, int B, int Smax, int V, int PAD, int BOS, int EOS) {
+        return make(task, B, Smax, V, PAD, BOS, EOS, new Random());
+    }
+
+    // Same seed -> same samples (e.g. every worker of a distributed run)
+    public static ToySeq2SeqDataset make(Task task, int B, int Smax, int V, int PAD, int BOS, int EOS, long seed) {
+        return make(task, B, Smax, V, PAD, BOS, EOS, new Random(seed));
+    }
+
+    private static ToySeq2SeqDataset make(Task task, int B, int Smax, int V, int PAD, int BOS, int EOS, Random rnd) {
         if (V < 4) throw new IllegalArgumentException("Vocab must be >= 4");
 
-        Random rnd = new Random();
         ToySeq2SeqDataset ds = new ToySeq2SeqDataset(B, Smax, V, PAD, BOS, EOS);
 
         for (int b = 0; b < B; b++) {
@@ -77,27 +85,46 @@ public final class ToySeq2SeqDataset {
 
     // 배치 텐서로 변환
     public Tensor batchSrc(int start, int batchSize) {
-        INDArray a = Nd4j.create(batchSize, Smax);
-        for (int i = 0; i < batchSize; i++) {
-            int b = start + i;
-            for (int t = 0; t < Smax; t++) a.putScalar(i, t, src[b][t]);
-        }
-        return new Tensor(a);
+        return batchSrc(start, batchSize, Smax);
     }
     public Tensor batchTgtIn(int start, int batchSize) {
-        INDArray a = Nd4j.create(batchSize, T);
-        for (int i = 0; i < batchSize; i++) {
-            int b = start + i;
-            for (int t = 0; t < T; t++) a.putScalar(i, t, tgtIn[b][t]);
-        }
-        return new Tensor(a);
+        return batchTgtIn(start, batchSize, T);
     }
     public Tensor batchTgtOut(int start, int batchSize) {
-        INDArray a = Nd4j.create(batchSize, T);
+        return batchTgtOut(start, batchSize, T);
+    }
+
+    // Only the first `width` positions (right PAD trimmed, e.g. width = longest row of the batch)
+    public Tensor batchSrc(int start, int batchSize, int width) {
+        return batch(src, start, batchSize, width);
+    }
+    public Tensor batchTgtIn(int start, int batchSize, int width) {
+        return batch(tgtIn, start, batchSize, width);
+    }
+    public Tensor batchTgtOut(int start, int batchSize, int width) {
+        return batch(tgtOut, start, batchSize, width);
+    }
+
+    // Non-PAD length of sample b (tgtIn and tgtOut have the same length)
+    public int srcLength(int b) {
+        return length(src[b]);
+    }
+    public int tgtLength(int b) {
+        return length(tgtIn[b]);
+    }
+
+    private static Tensor batch(int[][] rows, int start, int batchSize, int width) {
+        INDArray a = Nd4j.create(batchSize, width);
         for (int i = 0; i < batchSize; i++) {
             int b = start + i;
-            for(int t = 0; t < T; t++) a.putScalar(i, t, tgtOut[b][t]);
+            for (int t = 0; t < width; t++) a.putScalar(i, t, rows[b][t]);
         }
         return new Tensor(a);
     }
+
+    private int length(int[] row) {
+        int len = row.length;
+        while (len > 0 && row[len - 1] == PAD) len--;
+        return len;
+    }
 }
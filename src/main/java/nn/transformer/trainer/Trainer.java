@@ -1,9 +1,12 @@
 package nn.transformer.trainer;
 
+import nn.core.ActivationContext;
+import nn.distributed.GradientBuckets;
 import nn.loss.Loss;
 import nn.optimizer.Optimizer;
 import nn.transformer.Transformer;
 
+import tensor.StepArena;
 import tensor.Tensor;
 
 import java.util.Random;
@@ -18,12 +21,59 @@ public final class Trainer {
     private final Random rnd = new Random(7);
     private final Loss lossFunc;
 
+    // Distributed data parallel (null : single process)
+    private final GradientBuckets dist;
+
+    // Micro-batching : padded tokens (src + tgt) per forward / backward (0 : whole batch at once)
+    private int microBatchTokens = 0;
+
+    // Step-scoped memory (null : regular allocation)
+    private StepArena arena = null;
+
     public Trainer(Transformer model, Optimizer opt, Loss lossFunc, int vocabSize, int PADid) {
+        this(model, opt, lossFunc, vocabSize, PADid, null);
+    }
+
+    /*
+     * Distributed mode : every process runs this Trainer on the same dataset, and each step takes its rank's
+     * slice of the batch. Each rank weights its backward by its slice's share of the batch's target tokens, and dist
+     * sums the gradients over ranks, overlapped with backward, before the optimizer step : the step is the one of
+     * the whole batch on one process (an empty slice adds zeros). The replicas stay identical (start them from
+     * the same weights, see broadcastWeights).
+     */
+    public Trainer(Transformer model, Optimizer opt, Loss lossFunc, int vocabSize, int PADid, GradientBuckets dist) {
         this.model = model;
         this.opt   = opt;
         this.lossFunc = lossFunc;
         this.V     = vocabSize;
         this.PAD   = PADid;
+        this.dist  = dist;
+
+        if(dist != null) model.setGradientListener(dist);
+    }
+
+    /*
+     * Gradient accumulation : each batch is cut into micro-batches of at most maxTokens padded tokens
+     * (rows trimmed to the micro-batch's longest source / target), which run forward + backwardAccumulate
+     * one after the other before a single optimizer step. Micro-batch losses are weighted by their share of
+     * the batch's target tokens, so the step is the same as one pass over the whole batch.
+     * Peak activation memory follows maxTokens instead of batchSize. 0 turns it off.
+     */
+    public void setMicroBatchTokens(int maxTokens) {
+        if(maxTokens < 0) throw new IllegalArgumentException("maxTokens must be >= 0");
+        this.microBatchTokens = maxTokens;
+    }
+
+    /*
+     * Runs every step inside the arena (see StepArena) : activations, gradients and temporaries of a step reuse the
+     * previous step's native memory. Parameters and optimizer state live outside it. Call trainEpoch() from the
+     * thread that owns the arena. null (the default) turns it off.
+     * With micro-batching, each micro-batch (and the optimizer update) is an arena step of its own, so peak memory
+     * still follows maxTokens. An arena only hands memory back when its step ends : with checkpointing, the blocks
+     * recomputed in backward are not freed one by one, and the step holds all of them until it ends.
+     */
+    public void setStepArena(StepArena arena) {
+        this.arena = arena;
     }
 
     public double[] trainEpoch(ToySeq2SeqDataset ds, int batchSize) {
@@ -43,41 +93,77 @@ public final class Trainer {
         int correct = 0, total = 0;
 
         for(int step=0;step<steps;step++) {
-            int start = step * batchSize;
-            int B = Math.min(batchSize, N - start);
+            // Everything the step allocates goes back to the arena when it ends (micro-batches : see accumulateStep),
+            // and its activations are dropped with its context (closed first)
+            try(StepArena.Scope ignored = (arena != null && microBatchTokens == 0) ? arena.step() : null;
+                ActivationContext stepCtx = ActivationContext.open()) {
+                int start = step * batchSize;
+                int B = Math.min(batchSize, N - start);
+                long batchTokens = countTokens(ds, start, B);
+
+                // This rank's slice of the batch
+                if(dist != null) {
+                    int rank = dist.rank(), world = dist.worldSize();
+                    int from = start + B * rank / world, to = start + B * (rank + 1) / world;
+                    start = from;
+                    B = to - from;
+
+                    if(B == 0) {
+                        // Still takes part in the all-reduce (zero gradients)
+                        dist.beginStep();
+                        model.zeroGrad();
+                        dist.finishStep();
+                        model.update(opt);
+                        model.zeroGrad();
+                        continue;
+                    }
+                }
 
-            // Batch
-            Tensor srcIds = ds.batchSrc(start, B);      // [B, S]
-            Tensor tgtInIds = ds.batchTgtIn(start, B);  // [B, S]
+                if(microBatchTokens > 0) {
+                    double[] res = accumulateStep(ds, start, B, batchTokens);
+                    lossSum += res[0];
+                    correct += (int) res[1];
+                    total += (int) res[2];
+                    continue;
+                }
 
-            Tensor tgtOutIds = ds.batchTgtOut(start, B);// [B, S]
+                // Batch
+                Tensor srcIds = ds.batchSrc(start, B);      // [B, S]
+                Tensor tgtInIds = ds.batchTgtIn(start, B);  // [B, S]
 
-            // Forward
-            Tensor logits = model.forward(srcIds, tgtInIds, true);
+                Tensor tgtOutIds = ds.batchTgtOut(start, B);// [B, S]
 
+                // Forward
+                Tensor logits = model.forward(srcIds, tgtInIds, true);
 
-            // Loss
-            // PAD Masking for computing loss (w/o PAD tokens)
-            Tensor padMask = tgtOutIds.ne(PAD);
 
-            double lossVal = lossFunc.forward(logits, tgtOutIds, padMask);
-            Tensor dLogits = lossFunc.backward();
-            lossSum += lossVal;
+                // Loss
+                // PAD Masking for computing loss (w/o PAD tokens)
+                Tensor padMask = tgtOutIds.ne(PAD);
 
-            // Backward -> there are no returns in backward()
-            model.backward(dLogits, false, 1.0);
-            model.update(opt);
-            model.zeroGrad();
+                double lossVal = lossFunc.forward(logits, tgtOutIds, padMask);
+                Tensor dLogits = lossFunc.backward();
+                lossSum += lossVal;
+
+                // Backward -> there are no returns in backward()
+                // Slice's share of the batch (1 on one process) : ranks' gradients are summed
+                double weight = (double) countTokens(ds, start, B) / Math.max(1, batchTokens);
+                if(dist != null) dist.beginStep();
+                model.backward(dLogits, false, weight);
+                if(dist != null) dist.finishStep();
+                model.update(opt);
+                model.zeroGrad();
 
-            // Token Accuracy (ignores PAD)
-            Tensor pred = logits.argmax(-1);    // [B, S]
-            for(int i=0;i<B;i++) {
-                for(int j=0;j<S;j++) {
-                    int y = tgtOutIds.getInt(i, j);
+                // Token Accuracy (ignores PAD)
+                Tensor pred = logits.argmax(-1);    // [B, S]
+                for(int i=0;i<B;i++) {
+                    for(int j=0;j<S;j++) {
+                        int y = tgtOutIds.getInt(i, j);
 
-                    if(y == PAD) continue;
-                    if(pred.getInt(i, j) == y) correct++;
-                    total++;
+                        if(y == PAD) continue;
+                        if(pred.getInt(i, j) == y) correct++;
+                        total++;
+                    }
                 }
             }
         }
@@ -88,4 +174,72 @@ public final class Trainer {
         return new double[]{avgLoss, tokenAcc};
     }
 
+    // One optimizer step over samples [start, start + B) in micro-batches -> {loss, correct, total}.
+    // batchTokens : target tokens of the whole batch (all ranks' slices)
+    private double[] accumulateStep(ToySeq2SeqDataset ds, int start, int B, long batchTokens) {
+        long sliceTokens = countTokens(ds, start, B);
+        double lossSum = 0.0;
+        int correct = 0, total = 0;
+
+        int end = start + B;
+        for(int m=start;m<end;) {
+            // Greedy : grow while n * (longest src + longest tgt) fits the budget (at least one row)
+            int n = 0, S = 1, T = 1;
+            while(m + n < end) {
+                int s = Math.max(S, ds.srcLength(m + n)), t = Math.max(T, ds.tgtLength(m + n));
+                if(n > 0 && (long) (n + 1) * (s + t) > microBatchTokens) break;
+                S = s; T = t; n++;
+            }
+
+            // One arena step and context per micro-batch : its activations are returned before the next one runs
+            try(StepArena.Scope ignored = (arena != null) ? arena.step() : null;
+                ActivationContext microCtx = ActivationContext.open()) {
+                Tensor srcIds = ds.batchSrc(m, n, S);           // [n, S]
+                Tensor tgtInIds = ds.batchTgtIn(m, n, T);       // [n, T]
+                Tensor tgtOutIds = ds.batchTgtOut(m, n, T);     // [n, T]
+
+                Tensor logits = model.forward(srcIds, tgtInIds, true);
+                Tensor padMask = tgtOutIds.ne(PAD);
+
+                double lossVal = lossFunc.forward(logits, tgtOutIds, padMask);
+                long microTokens = countTokens(ds, m, n);
+                double weight = (double) microTokens / Math.max(1, batchTokens);
+                lossSum += lossVal * microTokens / Math.max(1, sliceTokens);    // Loss of this rank's slice
+
+                // Only the last backward of the step feeds the all-reduce
+                boolean last = (m + n == end);
+                if(last && dist != null) dist.beginStep();
+                model.backwardAccumulate(lossFunc.backward(), weight);
+
+                // Token Accuracy (ignores PAD)
+                Tensor pred = logits.argmax(-1);    // [n, T]
+                for(int i=0;i<n;i++) {
+                    for(int j=0;j<T;j++) {
+                        int y = tgtOutIds.getInt(i, j);
+
+                        if(y == PAD) continue;
+                        if(pred.getInt(i, j) == y) correct++;
+                        total++;
+                    }
+                }
+            }
+
+            m += n;
+        }
+
+        try(StepArena.Scope ignored = (arena != null) ? arena.step() : null) {
+            if(dist != null) dist.finishStep();
+            model.update(opt);
+            model.zeroGrad();
+        }
+
+        return new double[]{lossSum, correct, total};
+    }
+
+    private long countTokens(ToySeq2SeqDataset ds, int start, int B) {
+        long n = 0;
+        for(int b=start;b<start+B;b++) for(int y : ds.tgtOut[b]) if(y != PAD) n++;
+        return n;
+    }
+
 }
\ No newline at end of file
@@ -2,6 +2,11 @@ package tensor;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static org.nd4j.linalg.indexing.NDArrayIndex.all;
 import static org.nd4j.linalg.indexing.NDArrayIndex.point;
@@ -42,21 +47,41 @@ public class BatchedOps {
 
     // [..., M, K] x [..., K, N] = [..., M, N]
     public static Tensor bmmulND2(Tensor X1, Tensor X2) {
-        if(X1.ndim() != X2.ndim() || X1.ndim() < 3)
-            throw new IllegalArgumentException("Batched Matmul expects X1, X2 to have the same rank >= 3");
+        checkBatchedShapes(X1, X2);
 
-        for(int i=0;i<X1.ndim() - 2;i++) {
-            if(X1.size(i) != X2.size(i))
-                throw new IllegalArgumentException("Shape mismatch : " + "X1 : " + X1.size(i) + ", X2 : " + X2.size(i));
+        final int r = X1.ndim();
+        final int M = X1.size(-2);
+        final int N = X2.size(-1);
+
+        int[] out = X1.shape().clone();
+        out[r - 2] = M;
+        out[r - 1] = N;
+
+        // Inputs are passed with their own strides (e.g. permuted views from splitHeads),
+        // so no reshape -> dup happens on the Java side
+        INDArray A = X1.getNDArray();
+        INDArray B = X2.getNDArray();
+        INDArray Y = Nd4j.createUninitialized(A.dataType(), toLong(out), 'c');
+
+        if(nativeBatched) {
+            // Single batched matmul op : every [M, K] x [K, N] slice is handled on the native side
+            Nd4j.matmul(A, B, Y, false, false, false);
+            return new Tensor(Y);
         }
 
+        parallelSlices(A, B, Y, r - 2);
+
+        return new Tensor(Y);
+    }
+
+    // Reference path : one gemm per batch slice on the calling thread
+    public static Tensor bmmulND2Loop(Tensor X1, Tensor X2) {
+        checkBatchedShapes(X1, X2);
+
         final int M = X1.size(-2);
         final int K = X1.size(-1);
-        final int K2 = X2.size(-2);
         final int N = X2.size(-1);
 
-        if(K != K2) throw new IllegalArgumentException("Shape mismatch");
-
         long Bstar = 1L;
         for(int i=0;i<X1.ndim()-2;i++) Bstar *= X1.size(i);
 
@@ -86,4 +111,99 @@ public class BatchedOps {
 
         return new Tensor(Y.reshape('c', out));
     }
+
+    // Switches between the native batched op and the fork-join fallback (mainly for benchmarking)
+    public static void setNativeBatched(boolean enabled) {
+        nativeBatched = enabled;
+    }
+
+    public static boolean isNativeBatched() {
+        return nativeBatched;
+    }
+
+    /* private helper methods */
+
+    // Slices per fork-join leaf task
+    private static final int SLICES_PER_TASK = 4;
+
+    private static volatile boolean nativeBatched = probeNativeBatched();
+
+    // Backend support for the batched matmul op, checked once on a tiny input : a failure here means the op is
+    // unavailable (fork-join fallback), while failures of real calls are the caller's errors and propagate
+    private static boolean probeNativeBatched() {
+        try {
+            INDArray A = Nd4j.ones(2, 2, 3), B = Nd4j.ones(2, 3, 2);
+            INDArray Y = Nd4j.createUninitialized(A.dataType(), new long[]{2, 2, 2}, 'c');
+            Nd4j.matmul(A, B, Y, false, false, false);
+
+            return Y.getDouble(1, 1, 1) == 3.0;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void checkBatchedShapes(Tensor X1, Tensor X2) {
+        if(X1.ndim() != X2.ndim() || X1.ndim() < 3)
+            throw new IllegalArgumentException("Batched Matmul expects X1, X2 to have the same rank >= 3");
+
+        for(int i=0;i<X1.ndim() - 2;i++) {
+            if(X1.size(i) != X2.size(i))
+                throw new IllegalArgumentException("Shape mismatch : " + "X1 : " + X1.size(i) + ", X2 : " + X2.size(i));
+        }
+
+        if(X1.size(-1) != X2.size(-2)) throw new IllegalArgumentException("Shape mismatch");
+    }
+
+    // Y[b] = A[b] x B[b] for every batch index b, scheduled over the common fork-join pool.
+    // Slices are strided views of A, B (no copies), Y is c-contiguous so each Y[b] is a dense block.
+    private static void parallelSlices(INDArray A, INDArray B, INDArray Y, int batchRank) {
+        long[] batchShape = Arrays.copyOf(Y.shape(), batchRank);
+        long Bstar = 1L;
+        for(long s : batchShape) Bstar *= s;
+
+        ForkJoinPool.commonPool().invoke(new SliceTask(A, B, Y, batchShape, 0, Bstar));
+    }
+
+    private static INDArray batchSlice(INDArray X, long[] batchShape, long flatIdx) {
+        INDArrayIndex[] idx = new INDArrayIndex[batchShape.length + 2];
+        for(int i=batchShape.length - 1;i>=0;i--) {
+            idx[i] = point(flatIdx % batchShape[i]);
+            flatIdx /= batchShape[i];
+        }
+        idx[batchShape.length] = all();
+        idx[batchShape.length + 1] = all();
+
+        return X.get(idx);
+    }
+
+    private static long[] toLong(int[] shape) {
+        return Arrays.stream(shape).asLongStream().toArray();
+    }
+
+    private static final class SliceTask extends RecursiveAction {
+        private final INDArray A, B, Y;
+        private final long[] batchShape;
+        private final long from, to;
+
+        SliceTask(INDArray A, INDArray B, INDArray Y, long[] batchShape, long from, long to) {
+            this.A = A; this.B = B; this.Y = Y;
+            this.batchShape = batchShape;
+            this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= SLICES_PER_TASK) {
+                for(long b=from;b<to;b++) {
+                    Nd4j.gemm(batchSlice(A, batchShape, b), batchSlice(B, batchShape, b),
+                            batchSlice(Y, batchShape, b), false, false, 1.0, 0.0);
+                }
+                return;
+            }
+
+            long mid = (from + to) >>> 1;
+            invokeAll(new SliceTask(A, B, Y, batchShape, from, mid),
+                      new SliceTask(A, B, Y, batchShape, mid, to));
+        }
+    }
 }
@@ -28,6 +28,28 @@ public interface ITensor {
     Tensor mul(double scalar);
     Tensor div(double scalar);
 
+    // In place : the result overwrites this tensor, which is returned (no allocation)
+    Tensor addi(Tensor other);
+    Tensor subi(Tensor other);
+    Tensor muli(Tensor other);
+    Tensor divi(Tensor other);
+
+    Tensor addi(double scalar);
+    Tensor subi(double scalar);
+    Tensor muli(double scalar);
+    Tensor divi(double scalar);
+
+    // this += alpha * other (same shape)
+    Tensor addScaledi(Tensor other, double alpha);
+
+    // Out-parameter forms : the result is written into out (which may be this or other), out is returned
+    Tensor add(Tensor other, Tensor out);
+    Tensor sub(Tensor other, Tensor out);
+    Tensor mul(Tensor other, Tensor out);
+    Tensor div(Tensor other, Tensor out);
+    Tensor mul(double scalar, Tensor out);
+    Tensor div(double scalar, Tensor out);
+
     Tensor matmul(Tensor other);
 
     Tensor sum(int axis, boolean keepDims);
@@ -36,6 +58,7 @@ public interface ITensor {
     Tensor var(int axis, boolean keepDims);
     Tensor max(int axis, boolean keepDims);
     Tensor min(int axis, boolean keepDims);
+    Tensor maximum(Tensor other);
 
 
     Tensor exp();
@@ -45,6 +68,13 @@ public interface ITensor {
     Tensor neg();
     Tensor reciprocal();
 
+    Tensor expi();
+    Tensor logi();
+    Tensor sqrti();
+    Tensor powi(double d);
+    Tensor negi();
+    Tensor reciprocali();
+
     Tensor ge(double d);
     Tensor gt(double d);
     Tensor le(double d);
@@ -66,6 +96,7 @@ public interface ITensor {
     void set(double val, int... indices);
     Tensor get(int... indices);
     Tensor slice(int dim, int start, int end);
+    Tensor gatherRows(int... rows);
     double getDouble(int... indices);
     int getInt(int... indices);
 
@@ -73,4 +104,6 @@ public interface ITensor {
     double[] toDoubleArray();
     INDArray getNDArray();
     Tensor dup();
+    Tensor detach();
+    void release();
 }
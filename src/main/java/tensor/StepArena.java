@@ -0,0 +1,105 @@
+package tensor;
+
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.function.Supplier;
+
+/*
+ * Step-scoped arena : every array allocated between step() and Scope.close() lives in one cyclic ND4J workspace,
+ * whose memory is handed out again at the next step instead of being freed by GC / deallocator threads.
+ * The first step learns the working-set size (its allocations spill to regular memory); later steps that fit
+ * reuse the arena, and spills grow it (REALLOCATE) for the step after.
+ *
+ * Nothing allocated inside a step may be read after it : state that outlives the step (optimizer moments,
+ * caches built on first use) must be allocated with detached(), or copied out with Tensor.detach().
+ * Workspaces are per thread : one StepArena serves the thread that runs its steps.
+ */
+public final class StepArena {
+
+    private static final WorkspaceConfiguration CONFIG = WorkspaceConfiguration.builder()
+            .initialSize(0)
+            .overallocationLimit(0.2)
+            .policyAllocation(AllocationPolicy.OVERALLOCATE)
+            .policyLearning(LearningPolicy.FIRST_LOOP)
+            .policySpill(SpillPolicy.REALLOCATE)
+            .policyReset(ResetPolicy.BLOCK_LEFT)
+            .build();
+
+    private final String id;
+
+    // Statistics (bytes)
+    private long steps = 0;
+    private long highWater = 0;
+    private long arenaBytes = 0, totalBytes = 0;
+    private long lastSpilled = 0;
+
+    public StepArena(String id) {
+        this.id = id;
+    }
+
+    public final class Scope implements AutoCloseable {
+        private final MemoryWorkspace ws;
+
+        private Scope(MemoryWorkspace ws) {
+            this.ws = ws;
+        }
+
+        // Records the step's usage and hands the arena back for the next step
+        @Override
+        public void close() {
+            long used = ws.getPrimaryOffset();
+            long spilled = ws.getSpilledSize();
+            long stepSpilled = (spilled >= lastSpilled) ? spilled - lastSpilled : spilled;     // Counter reset by a reallocation
+            lastSpilled = spilled;
+
+            steps++;
+            highWater = Math.max(highWater, used + stepSpilled);
+            arenaBytes += used;
+            totalBytes += used + stepSpilled;
+
+            ws.close();
+        }
+    }
+
+    public Scope step() {
+        return new Scope(Nd4j.getWorkspaceManager().getAndActivateWorkspace(CONFIG, id));
+    }
+
+    // Allocates outside any active arena (long-lived tensors created during a step)
+    public static <T> T detached(Supplier<T> alloc) {
+        try(MemoryWorkspace ignored = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            return alloc.get();
+        }
+    }
+
+    // Largest working set of one step (arena + spilled bytes)
+    public long highWaterBytes() {
+        return highWater;
+    }
+
+    // Share of step allocations served from the arena (0 until the first step has sized it)
+    public double reuseRate() {
+        return (totalBytes == 0) ? 0.0 : (double) arenaBytes / totalBytes;
+    }
+
+    public long steps() {
+        return steps;
+    }
+
+    // Memory currently reserved by the arena on the calling thread
+    public long capacityBytes() {
+        MemoryWorkspace ws = Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(CONFIG, id);
+        return ws.getCurrentSize();
+    }
+
+    // Frees the arena's memory on the calling thread
+    public void destroy() {
+        Nd4j.getWorkspaceManager().destroyWorkspace(Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(CONFIG, id));
+    }
+}
@@ -207,6 +207,105 @@ public class Tensor implements ITensor {
         return new Tensor(data.div(scalar));
     }
 
+    @Override
+    public Tensor addi(Tensor other) {
+        data.addi(other.data);
+        return this;
+    }
+
+    @Override
+    public Tensor subi(Tensor other) {
+        data.subi(other.data);
+        return this;
+    }
+
+    @Override
+    public Tensor muli(Tensor other) {
+        data.muli(other.data);
+        return this;
+    }
+
+    @Override
+    public Tensor divi(Tensor other) {
+        data.divi(other.data);
+        return this;
+    }
+
+    @Override
+    public Tensor addi(double scalar) {
+        data.addi(scalar);
+        return this;
+    }
+
+    @Override
+    public Tensor subi(double scalar) {
+        data.subi(scalar);
+        return this;
+    }
+
+    @Override
+    public Tensor muli(double scalar) {
+        data.muli(scalar);
+        return this;
+    }
+
+    @Override
+    public Tensor divi(double scalar) {
+        data.divi(scalar);
+        return this;
+    }
+
+    @Override
+    public Tensor addScaledi(Tensor other, double alpha) {
+        INDArray x = other.data;
+        if(!Arrays.equals(data.shape(), x.shape()))
+            throw new IllegalArgumentException("addScaledi: shape mismatch " + Arrays.toString(data.shape())
+                    + " vs " + Arrays.toString(x.shape()));
+
+        // BLAS axpy on plain buffers, elementwise op otherwise
+        if(!data.isView() && !x.isView() && data.ordering() == x.ordering() && data.dataType() == x.dataType())
+            Nd4j.getBlasWrapper().level1().axpy(data.length(), alpha, x, data);
+        else data.addi(x.mul(alpha));
+
+        return this;
+    }
+
+    @Override
+    public Tensor add(Tensor other, Tensor out) {
+        data.addi(other.data, out.data);
+        return out;
+    }
+
+    @Override
+    public Tensor sub(Tensor other, Tensor out) {
+        data.subi(other.data, out.data);
+        return out;
+    }
+
+    @Override
+    public Tensor mul(Tensor other, Tensor out) {
+        data.muli(other.data, out.data);
+        return out;
+    }
+
+    @Override
+    public Tensor div(Tensor other, Tensor out) {
+        data.divi(other.data, out.data);
+        return out;
+    }
+
+    @Override
+    public Tensor mul(double scalar, Tensor out) {
+        data.muli(scalar, out.data);
+        return out;
+    }
+
+    @Override
+    public Tensor div(double scalar, Tensor out) {
+        data.divi(scalar, out.data);
+        return out;
+    }
+
     @Override
     public Tensor matmul(Tensor other) {
         INDArray A = this.data;
@@ -261,6 +360,11 @@ public class Tensor implements ITensor {
         return new Tensor(data.min(keepDims, axis));
     }
 
+    @Override
+    public Tensor maximum(Tensor other) {
+        return new Tensor(Transforms.max(data, other.data, true));
+    }
+
     @Override
     public Tensor exp() {
         return new Tensor(Nd4j.math().exp(data));
@@ -291,6 +395,42 @@ public class Tensor implements ITensor {
         return new Tensor(Nd4j.math().reciprocal(data));
     }
 
+    @Override
+    public Tensor expi() {
+        Transforms.exp(data, false);
+        return this;
+    }
+
+    @Override
+    public Tensor logi() {
+        Transforms.log(data, false);
+        return this;
+    }
+
+    @Override
+    public Tensor sqrti() {
+        Transforms.sqrt(data, false);
+        return this;
+    }
+
+    @Override
+    public Tensor powi(double d) {
+        Transforms.pow(data, d, false);
+        return this;
+    }
+
+    @Override
+    public Tensor negi() {
+        data.negi();
+        return this;
+    }
+
+    @Override
+    public Tensor reciprocali() {
+        data.rdivi(1.0);
+        return this;
+    }
+
     @Override
     public Tensor ge(double d) {
         double[] mask = data.gte(d).toDoubleVector();
@@ -402,6 +542,17 @@ public class Tensor implements ITensor {
         return new Tensor(view);
     }
 
+    // Gathers along axis 0 (rows may repeat) : [B, ...] -> [rows.length, ...]
+    @Override
+    public Tensor gatherRows(int... rows) {
+        int[] shape = this.shape();
+        INDArray flat = data.reshape('c', shape[0], data.length() / shape[0]);
+        INDArray picked = Nd4j.pullRows(flat, 1, rows);
+
+        shape[0] = rows.length;
+        return new Tensor(picked.reshape('c', shape));
+    }
+
     @Override
     public double getDouble(int... indices) {
         return data.getDouble(indices);
@@ -427,6 +578,18 @@ public class Tensor implements ITensor {
         return new Tensor(data.dup());
     }
 
+    // Copy outside any workspace (StepArena) : safe to keep after the step; this if already outside one
+    @Override
+    public Tensor detach() {
+        return data.isAttached() ? new Tensor(data.detach()) : this;
+    }
+
+    // Frees the off-heap buffer now instead of waiting for GC (no-op on views). Not usable afterwards
+    @Override
+    public void release() {
+        if(data.closeable()) data.close();
+    }
+
     @Override
     public String toString() {
         return "Tensor " + getShapeToString() + ": \n" + data.toString() + "\n";